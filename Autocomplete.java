@@ -0,0 +1,686 @@
+import java.util.*;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Autocomplete - Type-ahead and typo-tolerant lookup over product names
+ * and categories
+ * Every phrase is indexed in a radix trie under each of its word starts, so
+ * "desk" completes "Standing Desk" as well as "Desk Lamp". Each trie node
+ * keeps the ten most popular phrases below it, ranked by units sold, so a
+ * completion is a walk down the prefix and a read of one cached list,
+ * whatever the catalog size. A sale pushes a phrase up those lists and a
+ * return or removal pulls it down; either walk stops at the first node
+ * whose list it doesn't make or wasn't in, and a phrase that falls off a
+ * full list is replaced by the best of the node's own phrases and its
+ * children's leaders.
+ *
+ * Fuzzy lookups run a Levenshtein DP (adjacent transpositions count as one
+ * edit) down the trie, one row per character, and prune any branch whose
+ * best cell is already over the edit budget.
+ */
+public class Autocomplete {
+    
+    public static final int MAX_SUGGESTIONS = 10;
+    public static final int MAX_EDITS = 2;
+    private static final int MAX_WORD_STARTS = 8; // suffixes indexed per phrase
+    
+    private static final char[] NO_CHARS = new char[0];
+    private static final Node[] NO_NODES = new Node[0];
+    private static final int[] NO_IDS = new int[0];
+    
+    /**
+     * One completion: the phrase as written, the product it names (null
+     * for a category), its popularity and how many edits the query needed.
+     */
+    public static class Suggestion {
+        private final String text;
+        private final String productId;
+        private final double weight;
+        private final int edits;
+        
+        Suggestion(String text, String productId, double weight, int edits) {
+            this.text = text;
+            this.productId = productId;
+            this.weight = weight;
+            this.edits = edits;
+        }
+        
+        public String getText() { return text; }
+        public String getProductId() { return productId; }
+        public double getWeight() { return weight; }
+        public int getEdits() { return edits; }
+        
+        public boolean isCategory() {
+            return productId == null;
+        }
+        
+        @Override
+        public String toString() {
+            return isCategory() ? text + " (category)" : text;
+        }
+    }
+    
+    private static final class Entry {
+        final String text;
+        final String productId;
+        final String category; // lowercase category key, for products
+        double weight;         // units sold; a category's is the sum over its products
+        int productCount;      // for categories: products currently in it
+        List<Node> terminals = new ArrayList<>(2);
+        
+        Entry(String text, String productId, String category, double weight, int productCount) {
+            this.text = text;
+            this.productId = productId;
+            this.category = category;
+            this.weight = weight;
+            this.productCount = productCount;
+        }
+    }
+    
+    private static final class Node {
+        String label; // edge from the parent
+        Node parent;
+        char[] firsts = NO_CHARS; // first char of each child's label, sorted
+        Node[] children = NO_NODES;
+        int[] terminals = NO_IDS; // entries whose key ends here
+        int[] top = NO_IDS;       // most popular entries in this subtree, best first
+        
+        Node(String label, Node parent) {
+            this.label = label;
+            this.parent = parent;
+        }
+    }
+    
+    private final ReadWriteLock lock;
+    private final Node root;
+    private Entry[] entries;
+    private int entryCount;
+    private final Map<String, Integer> productEntries;  // productId -> entry
+    private final Map<String, Integer> categoryEntries; // lowercase category -> entry
+    
+    public Autocomplete() {
+        this.lock = new ReentrantReadWriteLock();
+        this.root = new Node("", null);
+        this.entries = new Entry[1024];
+        this.productEntries = new HashMap<>();
+        this.categoryEntries = new HashMap<>();
+    }
+    
+    // Maintenance
+    /**
+     * Indexes the product's name and counts it toward its category. A
+     * product already indexed under the same ID is replaced but keeps its
+     * popularity, which moves with it if the category changed; a category
+     * left with no products is dropped.
+     */
+    public void addProduct(Product product) {
+        String name = product.getName();
+        String category = product.getCategory();
+        
+        lock.writeLock().lock();
+        try {
+            double weight = 0;
+            Entry old = null;
+            Integer previous = productEntries.remove(product.getProductId());
+            if (previous != null) {
+                old = entries[previous];
+                weight = old.weight;
+                removeEntry(previous);
+            }
+            String key = category.toLowerCase(Locale.ROOT);
+            productEntries.put(product.getProductId(),
+                               addEntry(name, product.getProductId(), key, weight, 0));
+            
+            // Join the new category before leaving the old one, so a product
+            // replaced within its only category doesn't drop the category
+            Integer categoryId = categoryEntries.get(key);
+            if (categoryId == null) {
+                categoryEntries.put(key, addEntry(category, null, null, weight, 1));
+            } else {
+                adjust(categoryId, weight, 1);
+            }
+            if (old != null) {
+                leaveCategory(old.category, weight);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+    
+    /**
+     * Raises (or, for returns, lowers) the product's and its category's
+     * popularity by the units sold.
+     */
+    public void recordSales(Product product, int units) {
+        if (units == 0) {
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            Integer id = productEntries.get(product.getProductId());
+            if (id != null) {
+                adjust(id, units, 0);
+                adjust(categoryEntries.get(entries[id].category), units, 0);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+    
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return productEntries.size() + categoryEntries.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+    
+    // Lookups
+    /**
+     * Completions of the prefix, most popular first; when those run short,
+     * close misspellings fill the rest. Up to one edit is allowed from
+     * three characters and two from six, so short prefixes stay exact.
+     */
+    public List<Suggestion> suggest(String prefix, int limit) {
+        String key = normalize(prefix);
+        int edits = key.length() < 3 ? 0 : key.length() < 6 ? 1 : MAX_EDITS;
+        limit = Math.min(limit, MAX_SUGGESTIONS);
+        
+        List<Suggestion> result = complete(key, limit);
+        if (result.size() < limit && edits > 0) {
+            Set<String> seen = new HashSet<>();
+            for (Suggestion suggestion : result) {
+                seen.add(suggestion.text + "\u0000" + suggestion.productId);
+            }
+            for (Suggestion suggestion : fuzzy(key, limit, edits)) {
+                if (result.size() < limit && seen.add(suggestion.text + "\u0000" + suggestion.productId)) {
+                    result.add(suggestion);
+                }
+            }
+        }
+        return result;
+    }
+    
+    /**
+     * Exact completions only: phrases with a word run starting with the
+     * prefix, most popular first.
+     */
+    public List<Suggestion> complete(String prefix, int limit) {
+        String key = normalize(prefix);
+        lock.readLock().lock();
+        try {
+            Node node = locate(key);
+            List<Suggestion> result = new ArrayList<>();
+            if (node != null) {
+                for (int i = 0; i < node.top.length && result.size() < limit; i++) {
+                    result.add(suggestion(node.top[i], 0));
+                }
+            }
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+    
+    /**
+     * Phrases with a word run starting within maxEdits edits of the
+     * prefix, fewest edits first and then most popular.
+     */
+    public List<Suggestion> fuzzy(String prefix, int limit, int maxEdits) {
+        String key = normalize(prefix);
+        maxEdits = Math.max(0, Math.min(MAX_EDITS, maxEdits));
+        Map<Integer, Integer> matches = new HashMap<>(); // entry -> fewest edits
+        
+        lock.readLock().lock();
+        try {
+            int[] row = new int[key.length() + 1];
+            for (int j = 0; j <= key.length(); j++) {
+                row[j] = j;
+            }
+            if (row[key.length()] <= maxEdits) {
+                collect(root, key.length(), matches);
+            }
+            for (Node child : root.children) {
+                walk(child, key, row, null, (char) 0, maxEdits, matches);
+            }
+            
+            List<Integer> ids = new ArrayList<>(matches.keySet());
+            ids.sort((a, b) -> {
+                int byEdits = Integer.compare(matches.get(a), matches.get(b));
+                return byEdits != 0 ? byEdits : compare(a, b);
+            });
+            List<Suggestion> result = new ArrayList<>();
+            for (int i = 0; i < ids.size() && result.size() < limit; i++) {
+                result.add(suggestion(ids.get(i), matches.get(ids.get(i))));
+            }
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+    
+    private void walk(Node node, String key, int[] row, int[] previous, char previousChar,
+                      int maxEdits, Map<Integer, Integer> matches) {
+        int m = key.length();
+        for (int i = 0; i < node.label.length(); i++) {
+            char c = node.label.charAt(i);
+            int[] next = new int[m + 1];
+            next[0] = row[0] + 1;
+            int best = next[0];
+            for (int j = 1; j <= m; j++) {
+                char k = key.charAt(j - 1);
+                int cost = k == c ? 0 : 1;
+                int value = Math.min(Math.min(row[j] + 1, next[j - 1] + 1), row[j - 1] + cost);
+                if (previous != null && j > 1 && k == previousChar && key.charAt(j - 2) == c) {
+                    value = Math.min(value, previous[j - 2] + 1);
+                }
+                next[j] = value;
+                best = Math.min(best, value);
+            }
+            if (best > maxEdits) {
+                return;
+            }
+            previous = row;
+            previousChar = c;
+            row = next;
+            if (row[m] <= maxEdits) {
+                collect(node, row[m], matches);
+            }
+        }
+        
+        for (Node child : node.children) {
+            walk(child, key, row, previous, previousChar, maxEdits, matches);
+        }
+    }
+    
+    private static void collect(Node node, int edits, Map<Integer, Integer> matches) {
+        for (int id : node.top) {
+            matches.merge(id, edits, Math::min);
+        }
+    }
+    
+    private Suggestion suggestion(int id, int edits) {
+        Entry entry = entries[id];
+        return new Suggestion(entry.text, entry.productId, entry.weight, edits);
+    }
+    
+    /**
+     * The node whose subtree holds every key starting with the prefix, or
+     * null when none does.
+     */
+    private Node locate(String key) {
+        Node node = root;
+        int i = 0;
+        while (i < key.length()) {
+            int index = Arrays.binarySearch(node.firsts, key.charAt(i));
+            if (index < 0) {
+                return null;
+            }
+            Node child = node.children[index];
+            int common = commonPrefix(child.label, key, i);
+            if (common < child.label.length()) {
+                return i + common == key.length() ? child : null;
+            }
+            node = child;
+            i += common;
+        }
+        return node;
+    }
+    
+    // Trie updates
+    private int addEntry(String text, String productId, String category, double weight,
+                         int productCount) {
+        if (entryCount == entries.length) {
+            entries = Arrays.copyOf(entries, entryCount * 2);
+        }
+        int id = entryCount++;
+        Entry entry = new Entry(text, productId, category, weight, productCount);
+        entries[id] = entry;
+        
+        List<String> words = SearchIndex.tokenize(text);
+        for (int start = 0; start < words.size() && start < MAX_WORD_STARTS; start++) {
+            insert(String.join(" ", words.subList(start, words.size())), id);
+        }
+        return id;
+    }
+    
+    private void insert(String key, int id) {
+        Node node = root;
+        int i = 0;
+        while (i < key.length()) {
+            int index = Arrays.binarySearch(node.firsts, key.charAt(i));
+            if (index < 0) {
+                Node leaf = new Node(key.substring(i), node);
+                addChild(node, -index - 1, leaf);
+                node = leaf;
+                break;
+            }
+            Node child = node.children[index];
+            int common = commonPrefix(child.label, key, i);
+            if (common < child.label.length()) {
+                child = split(node, index, common);
+            }
+            node = child;
+            i += common;
+        }
+        
+        for (int existing : node.terminals) {
+            if (existing == id) {
+                return;
+            }
+        }
+        node.terminals = append(node.terminals, id);
+        entries[id].terminals.add(node);
+        promote(node, id);
+    }
+    
+    /**
+     * Cuts the child's edge after length characters, putting a new node in
+     * between that starts with the same top list.
+     */
+    private Node split(Node parent, int index, int length) {
+        Node child = parent.children[index];
+        Node middle = new Node(child.label.substring(0, length), parent);
+        child.label = child.label.substring(length);
+        child.parent = middle;
+        middle.firsts = new char[] { child.label.charAt(0) };
+        middle.children = new Node[] { child };
+        middle.top = child.top.clone();
+        parent.children[index] = middle;
+        return middle;
+    }
+    
+    private static void addChild(Node parent, int index, Node child) {
+        int count = parent.firsts.length;
+        char[] firsts = new char[count + 1];
+        Node[] children = new Node[count + 1];
+        System.arraycopy(parent.firsts, 0, firsts, 0, index);
+        System.arraycopy(parent.children, 0, children, 0, index);
+        firsts[index] = child.label.charAt(0);
+        children[index] = child;
+        System.arraycopy(parent.firsts, index, firsts, index + 1, count - index);
+        System.arraycopy(parent.children, index, children, index + 1, count - index);
+        parent.firsts = firsts;
+        parent.children = children;
+    }
+    
+    private void removeEntry(int id) {
+        Entry entry = entries[id];
+        List<Node> starts = new ArrayList<>(entry.terminals.size());
+        for (Node node : entry.terminals) {
+            node.terminals = without(node.terminals, id);
+            starts.add(prune(node));
+        }
+        demote(id, true, starts);
+        entry.terminals = Collections.emptyList();
+        entries[id] = null;
+    }
+    
+    /**
+     * Drops the node if nothing ends at or below it, and folds a parent
+     * left with one child into that child. Returns the deepest node still
+     * on the path whose top list may hold the removed entry.
+     */
+    private Node prune(Node node) {
+        if (node == root || node.terminals.length > 0 || node.children.length > 0) {
+            return node;
+        }
+        Node parent = node.parent;
+        int index = Arrays.binarySearch(parent.firsts, node.label.charAt(0));
+        parent.firsts = removeAt(parent.firsts, index);
+        parent.children = removeAt(parent.children, index);
+        
+        if (parent != root && parent.terminals.length == 0 && parent.children.length == 1) {
+            Node only = parent.children[0];
+            Node grandparent = parent.parent;
+            int slot = Arrays.binarySearch(grandparent.firsts, parent.label.charAt(0));
+            only.label = parent.label + only.label;
+            only.parent = grandparent;
+            grandparent.children[slot] = only;
+            return grandparent;
+        }
+        return prune(parent);
+    }
+    
+    /**
+     * Takes a product's sales out of its category, or drops the category
+     * once its last product has left.
+     */
+    private void leaveCategory(String key, double sales) {
+        Integer id = categoryEntries.get(key);
+        if (id == null) {
+            return;
+        }
+        if (entries[id].productCount <= 1) {
+            categoryEntries.remove(key);
+            removeEntry(id);
+        } else {
+            adjust(id, -sales, -1);
+        }
+    }
+    
+    /**
+     * Changes an entry's units sold and product count. A gain only has to
+     * promote the entry; a loss demotes it in the lists that hold it.
+     */
+    private void adjust(Integer id, double sales, int products) {
+        if (id == null || (sales == 0 && products == 0)) {
+            return;
+        }
+        Entry entry = entries[id];
+        entry.weight += sales;
+        entry.productCount += products;
+        boolean gained = sales > 0 || (sales == 0 && products > 0);
+        if (gained) {
+            for (Node node : entry.terminals) {
+                promote(node, id);
+            }
+        } else {
+            demote(id, false, entry.terminals);
+        }
+    }
+    
+    /**
+     * Offers an entry that just appeared or gained weight to the top lists
+     * from the node up. A node it doesn't make can't pass it to an
+     * ancestor, so the walk ends there.
+     */
+    private void promote(Node node, int id) {
+        for (Node n = node; n != null; n = n.parent) {
+            if (!offer(n, id)) {
+                return;
+            }
+        }
+    }
+    
+    private boolean offer(Node node, int id) {
+        int[] top = node.top;
+        int at = indexOf(top, id);
+        if (at < 0) {
+            if (top.length < MAX_SUGGESTIONS) {
+                top = append(top, id);
+            } else if (compare(id, top[top.length - 1]) < 0) {
+                top = top.clone();
+                top[top.length - 1] = id;
+            } else {
+                return false;
+            }
+            at = top.length - 1;
+        } else {
+            top = top.clone();
+        }
+        while (at > 0 && compare(top[at], top[at - 1]) < 0) {
+            int swap = top[at];
+            top[at] = top[at - 1];
+            top[at - 1] = swap;
+            at--;
+        }
+        node.top = top;
+        return true;
+    }
+    
+    /**
+     * Takes an entry that lost weight, or is being removed, out of the top
+     * lists from the given nodes up. Deeper nodes go first, so a node is
+     * only refilled once all of its children are settled, and a node whose
+     * list didn't hold the entry ends that path. Lists on several of the
+     * entry's paths meet in shared ancestors, which are visited once.
+     */
+    private void demote(int id, boolean removed, List<Node> starts) {
+        List<Node> pending = new ArrayList<>(starts);
+        while (!pending.isEmpty()) {
+            int deepest = 0;
+            int deepestDepth = -1;
+            for (int i = 0; i < pending.size(); i++) {
+                int depth = depth(pending.get(i));
+                if (depth > deepestDepth) {
+                    deepest = i;
+                    deepestDepth = depth;
+                }
+            }
+            Node node = pending.remove(deepest);
+            while (pending.remove(node)) {
+                // the same node reached along another path
+            }
+            if (drop(node, id, removed) && node.parent != null && !pending.contains(node.parent)) {
+                pending.add(node.parent);
+            }
+        }
+    }
+    
+    /**
+     * Takes the entry out of the node's top list and refills the slot.
+     * Returns false if the list didn't hold it.
+     */
+    private boolean drop(Node node, int id, boolean removed) {
+        int[] top = node.top;
+        int at = indexOf(top, id);
+        if (at < 0) {
+            return false;
+        }
+        node.top = without(top, id);
+        if (top.length < MAX_SUGGESTIONS) {
+            // The list holds the whole subtree, so nothing else can move in
+            if (!removed) {
+                offer(node, id);
+            }
+        } else if (!removed && at < top.length - 1 && compare(id, top[top.length - 1]) < 0) {
+            // Still ahead of the old last entry, so still ahead of everything outside
+            offer(node, id);
+        } else {
+            int next = bestOutside(node, removed ? id : -1);
+            if (next >= 0) {
+                offer(node, next);
+            }
+        }
+        return true;
+    }
+    
+    /**
+     * The most popular entry in the node's subtree that isn't in its top
+     * list, or -1. Each child's top list holds its own leaders, so its
+     * first entry the node's list lacks is that child's best candidate.
+     */
+    private int bestOutside(Node node, int excluded) {
+        int best = -1;
+        for (int id : node.terminals) {
+            if (id != excluded && indexOf(node.top, id) < 0 && (best < 0 || compare(id, best) < 0)) {
+                best = id;
+            }
+        }
+        for (Node child : node.children) {
+            for (int id : child.top) {
+                if (id != excluded && indexOf(node.top, id) < 0) {
+                    if (best < 0 || compare(id, best) < 0) {
+                        best = id;
+                    }
+                    break;
+                }
+            }
+        }
+        return best;
+    }
+    
+    private static int depth(Node node) {
+        int depth = 0;
+        for (Node n = node.parent; n != null; n = n.parent) {
+            depth++;
+        }
+        return depth;
+    }
+    
+    /**
+     * Most popular first, then categories with more products, then
+     * alphabetical.
+     */
+    private int compare(int a, int b) {
+        Entry x = entries[a];
+        Entry y = entries[b];
+        int byWeight = Double.compare(y.weight, x.weight);
+        if (byWeight != 0) {
+            return byWeight;
+        }
+        int bySize = Integer.compare(y.productCount, x.productCount);
+        if (bySize != 0) {
+            return bySize;
+        }
+        int byText = x.text.compareToIgnoreCase(y.text);
+        return byText != 0 ? byText : Integer.compare(a, b);
+    }
+    
+    // Helpers
+    private static String normalize(String text) {
+        return String.join(" ", SearchIndex.tokenize(text));
+    }
+    
+    private static int commonPrefix(String label, String key, int offset) {
+        int max = Math.min(label.length(), key.length() - offset);
+        int i = 0;
+        while (i < max && label.charAt(i) == key.charAt(offset + i)) {
+            i++;
+        }
+        return i;
+    }
+    
+    private static int indexOf(int[] ids, int id) {
+        for (int i = 0; i < ids.length; i++) {
+            if (ids[i] == id) {
+                return i;
+            }
+        }
+        return -1;
+    }
+    
+    private static int[] append(int[] ids, int id) {
+        int[] result = Arrays.copyOf(ids, ids.length + 1);
+        result[ids.length] = id;
+        return result;
+    }
+    
+    private static int[] without(int[] ids, int id) {
+        int at = indexOf(ids, id);
+        if (at < 0) {
+            return ids;
+        }
+        int[] result = new int[ids.length - 1];
+        System.arraycopy(ids, 0, result, 0, at);
+        System.arraycopy(ids, at + 1, result, at, ids.length - at - 1);
+        return result;
+    }
+    
+    private static char[] removeAt(char[] values, int index) {
+        char[] result = new char[values.length - 1];
+        System.arraycopy(values, 0, result, 0, index);
+        System.arraycopy(values, index + 1, result, index, values.length - index - 1);
+        return result;
+    }
+    
+    private static Node[] removeAt(Node[] values, int index) {
+        Node[] result = new Node[values.length - 1];
+        System.arraycopy(values, 0, result, 0, index);
+        System.arraycopy(values, index + 1, result, index, values.length - index - 1);
+        return result;
+    }
+}
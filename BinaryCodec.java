@@ -0,0 +1,352 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.*;
+import java.util.function.Function;
+
+/**
+ * BinaryCodec - Compact, versioned binary encoding for domain objects
+ * Integers are varints (zigzag for signed values), timestamps are epoch
+ * millis, prices are whole cents when they fit, and repeated strings such
+ * as IDs, categories and customer names are written once per stream and
+ * referenced by index after that. Decoding reads straight out of a
+ * ByteBuffer, so a memory-mapped file needs no intermediate copy.
+ */
+public class BinaryCodec {
+    
+    public static final int VERSION = 3;
+    
+    private static final ZoneId ZONE = ZoneId.systemDefault();
+    
+    /**
+     * Growable write buffer with its own string table. One encoder covers
+     * one stream; a decoder must read that stream from its start.
+     */
+    public static class Encoder {
+        private ByteBuffer buffer;
+        private Map<String, Integer> strings;
+        
+        public Encoder(int initialCapacity) {
+            this.buffer = ByteBuffer.allocate(initialCapacity);
+            this.strings = new HashMap<>();
+        }
+        
+        private void ensure(int bytes) {
+            if (buffer.remaining() < bytes) {
+                int capacity = Math.max(buffer.capacity() * 2, buffer.position() + bytes);
+                ByteBuffer grown = ByteBuffer.allocate(capacity);
+                buffer.flip();
+                grown.put(buffer);
+                buffer = grown;
+            }
+        }
+        
+        public void writeByte(int value) {
+            ensure(1);
+            buffer.put((byte) value);
+        }
+        
+        public void writeVarLong(long value) {
+            ensure(10);
+            while ((value & ~0x7FL) != 0) {
+                buffer.put((byte) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            buffer.put((byte) value);
+        }
+        
+        public void writeVarInt(int value) {
+            writeVarLong(value & 0xFFFFFFFFL);
+        }
+        
+        public void writeSignedVarLong(long value) {
+            writeVarLong((value << 1) ^ (value >> 63));
+        }
+        
+        public void writeBoolean(boolean value) {
+            writeByte(value ? 1 : 0);
+        }
+        
+        /**
+         * Prices with at most two decimals go out as zigzag cents; anything
+         * else falls back to the raw double bits.
+         */
+        public void writePrice(double value) {
+            long cents = Math.round(value * 100);
+            if (cents / 100.0 == value) {
+                writeSignedVarLong(cents << 1);
+            } else {
+                writeSignedVarLong(1);
+                ensure(8);
+                buffer.putDouble(value);
+            }
+        }
+        
+        public void writeTimestamp(LocalDateTime value) {
+            if (value == null) {
+                writeByte(0);
+            } else {
+                writeByte(1);
+                writeSignedVarLong(value.atZone(ZONE).toInstant().toEpochMilli());
+            }
+        }
+        
+        /**
+         * Writes a string once and a back-reference on every repeat:
+         * 0 + length + UTF-8 bytes the first time, index + 1 afterwards.
+         */
+        public void writeInterned(String value) {
+            Integer index = strings.get(value);
+            if (index != null) {
+                writeVarInt(index + 1);
+                return;
+            }
+            strings.put(value, strings.size());
+            writeVarInt(0);
+            writeString(value);
+        }
+        
+        public void writeString(String value) {
+            byte[] bytes = (value == null ? "" : value).getBytes(StandardCharsets.UTF_8);
+            writeVarInt(bytes.length);
+            ensure(bytes.length);
+            buffer.put(bytes);
+        }
+        
+        public int size() {
+            return buffer.position();
+        }
+        
+        public byte[] toByteArray() {
+            return Arrays.copyOf(buffer.array(), buffer.position());
+        }
+        
+        /**
+         * Drains the bytes written so far to the channel. The string table is
+         * kept, so later writes may still reference earlier strings.
+         */
+        public void flushTo(WritableByteChannel channel) throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+    }
+    
+    /**
+     * Reads values in place from a ByteBuffer, mirroring Encoder.
+     */
+    public static class Decoder {
+        private ByteBuffer buffer;
+        private List<String> strings;
+        
+        public Decoder(ByteBuffer buffer) {
+            this.buffer = buffer;
+            this.strings = new ArrayList<>();
+        }
+        
+        public int readByte() {
+            return buffer.get() & 0xFF;
+        }
+        
+        public long readVarLong() {
+            long value = 0;
+            int shift = 0;
+            while (true) {
+                byte b = buffer.get();
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+                shift += 7;
+                if (shift > 63) {
+                    throw new IllegalStateException("Malformed varint");
+                }
+            }
+        }
+        
+        public int readVarInt() {
+            return (int) readVarLong();
+        }
+        
+        public long readSignedVarLong() {
+            long raw = readVarLong();
+            return (raw >>> 1) ^ -(raw & 1);
+        }
+        
+        public boolean readBoolean() {
+            return readByte() != 0;
+        }
+        
+        public double readPrice() {
+            long raw = readSignedVarLong();
+            if ((raw & 1) == 0) {
+                return (raw >> 1) / 100.0;
+            }
+            return buffer.getDouble();
+        }
+        
+        public LocalDateTime readTimestamp() {
+            if (readByte() == 0) {
+                return null;
+            }
+            return LocalDateTime.ofInstant(Instant.ofEpochMilli(readSignedVarLong()), ZONE);
+        }
+        
+        public String readInterned() {
+            int reference = readVarInt();
+            if (reference > 0) {
+                return strings.get(reference - 1);
+            }
+            String value = readString();
+            strings.add(value);
+            return value;
+        }
+        
+        public String readString() {
+            int length = readVarInt();
+            String value;
+            if (buffer.hasArray()) {
+                value = new String(buffer.array(), buffer.arrayOffset() + buffer.position(),
+                                   length, StandardCharsets.UTF_8);
+                buffer.position(buffer.position() + length);
+            } else {
+                byte[] bytes = new byte[length];
+                buffer.get(bytes);
+                value = new String(bytes, StandardCharsets.UTF_8);
+            }
+            return value;
+        }
+        
+        public boolean hasRemaining() {
+            return buffer.hasRemaining();
+        }
+    }
+    
+    // Products
+    public static void writeProduct(Encoder out, Product product) {
+        out.writeInterned(product.getProductId());
+        out.writeString(product.getName());
+        out.writeInterned(product.getCategory());
+        out.writeString(product.getDescription());
+        out.writePrice(product.getPrice());
+        out.writeSignedVarLong(product.getStockQuantity());
+        out.writeInterned(product.getSellerId());
+        out.writeSignedVarLong(product.getLowStockThreshold());
+    }
+    
+    public static Product readProduct(Decoder in) {
+        Product product = new Product(in.readInterned(), in.readString(), in.readInterned(),
+                                      in.readString(), in.readPrice(),
+                                      (int) in.readSignedVarLong(), in.readInterned());
+        product.setLowStockThreshold((int) in.readSignedVarLong());
+        return product;
+    }
+    
+    // Reviews
+    public static void writeReview(Encoder out, Review review) {
+        out.writeInterned(review.getCustomerId());
+        out.writeInterned(review.getCustomerName());
+        out.writeByte(review.getRating() | (review.isVerified() ? 0x80 : 0));
+        out.writeString(review.getComment());
+        out.writeTimestamp(review.getReviewDate());
+    }
+    
+    public static Review readReview(Decoder in) {
+        String customerId = in.readInterned();
+        String customerName = in.readInterned();
+        int packed = in.readByte();
+        return new Review(customerId, customerName, packed & 0x7F, in.readString(),
+                          (packed & 0x80) != 0, in.readTimestamp());
+    }
+    
+    // Customers
+    public static void writeCustomer(Encoder out, Customer customer) {
+        out.writeInterned(customer.getCustomerId());
+        out.writeInterned(customer.getName());
+        out.writeString(customer.getEmail());
+        out.writeString(customer.getPhone());
+        out.writeString(customer.getAddress());
+    }
+    
+    public static Customer readCustomer(Decoder in) {
+        return new Customer(in.readInterned(), in.readInterned(), in.readString(),
+                            in.readString(), in.readString());
+    }
+    
+    // Orders
+    public static void writeOrder(Encoder out, Order order) {
+        out.writeInterned(order.getOrderId());
+        out.writeInterned(order.getCustomerId());
+        out.writePrice(order.getTotalAmount());
+        out.writeByte(order.getStatus().ordinal());
+        out.writeTimestamp(order.getOrderDate());
+        out.writeTimestamp(order.getDeliveryDate());
+        out.writeTimestamp(order.getLastStatusChange());
+        out.writeInterned(order.getShippingAddress());
+        out.writeInterned(order.getPaymentMethod());
+        
+        out.writeVarInt(order.getLineCount());
+        for (int line = 0; line < order.getLineCount(); line++) {
+            out.writeInterned(order.getLineProduct(line).getProductId());
+            out.writeVarInt(order.getLineQuantity(line));
+            out.writePrice(order.getLineUnitPrice(line));
+        }
+        
+        synchronized (order) {
+            int historySize = order.getHistorySize();
+            out.writeVarInt(historySize);
+            for (int i = 0; i < historySize; i++) {
+                out.writeVarInt(order.getHistoryStatus(i).ordinal());
+                out.writeVarLong(order.getHistoryTime(i));
+            }
+        }
+    }
+    
+    /**
+     * Reads an order, resolving product IDs through the given lookup.
+     * Returns null if any product can't be resolved.
+     */
+    public static Order readOrder(Decoder in, Function<String, Product> products) {
+        String orderId = in.readInterned();
+        String customerId = in.readInterned();
+        double total = in.readPrice();
+        Order.OrderStatus status = Order.OrderStatus.values()[in.readByte()];
+        LocalDateTime orderDate = in.readTimestamp();
+        LocalDateTime deliveryDate = in.readTimestamp();
+        LocalDateTime lastChange = in.readTimestamp();
+        String address = in.readInterned();
+        String payment = in.readInterned();
+        
+        int lines = in.readVarInt();
+        Product[] lineProducts = new Product[lines];
+        int[] quantities = new int[lines];
+        double[] prices = new double[lines];
+        boolean resolved = true;
+        for (int line = 0; line < lines; line++) {
+            lineProducts[line] = products.apply(in.readInterned());
+            quantities[line] = in.readVarInt();
+            prices[line] = in.readPrice();
+            resolved &= lineProducts[line] != null;
+        }
+        
+        int historySize = in.readVarInt();
+        Order.OrderStatus[] historyStatuses = new Order.OrderStatus[historySize];
+        long[] historyTimes = new long[historySize];
+        for (int i = 0; i < historySize; i++) {
+            historyStatuses[i] = Order.OrderStatus.values()[in.readVarInt()];
+            historyTimes[i] = in.readVarLong();
+        }
+        
+        if (!resolved) {
+            return null;
+        }
+        return new Order(orderId, customerId, lineProducts, quantities, prices, total, status,
+                         orderDate, deliveryDate, lastChange, address, payment, historyStatuses, historyTimes);
+    }
+}
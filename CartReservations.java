@@ -0,0 +1,207 @@
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * CartReservations - Soft stock holds for cart items, expired by a timer wheel
+ * Putting an item in a cart holds that quantity on the product so nobody
+ * else can buy it; the hold lapses after a TTL unless the cart checks out
+ * first. Expiry uses a hashed timer wheel: one slot per tick, and each tick
+ * only looks at the holds that fall due in that slot.
+ *
+ * Holds live in memory only. An expired or lost hold leaves the item in
+ * the cart; checkout then needs the stock to be free as usual.
+ */
+public class CartReservations {
+    
+    private static final long TICK_MILLIS = 1000;
+    private static final int WHEEL_SLOTS = 512;
+    
+    private static class Hold {
+        final String customerId;
+        final Product product;
+        int quantity;
+        volatile long deadlineTick;
+        
+        Hold(String customerId, Product product) {
+            this.customerId = customerId;
+            this.product = product;
+        }
+    }
+    
+    private final long ttlTicks;
+    private final Map<String, Map<Product, Hold>> holdsByCustomer;
+    private final List<Set<Hold>> wheel;
+    private final long startMillis;
+    private volatile long expiredTick;
+    private ScheduledExecutorService ticker;
+    
+    public CartReservations(Duration ttl) {
+        this.ttlTicks = Math.max(1, ttl.toMillis() / TICK_MILLIS);
+        this.holdsByCustomer = new ConcurrentHashMap<>();
+        this.wheel = new ArrayList<>(WHEEL_SLOTS);
+        for (int i = 0; i < WHEEL_SLOTS; i++) {
+            wheel.add(ConcurrentHashMap.newKeySet());
+        }
+        this.startMillis = System.currentTimeMillis();
+        this.expiredTick = -1;
+    }
+    
+    /**
+     * Holds more of a product for the customer and restarts the TTL on the
+     * whole hold. Returns false, holding nothing, if that much isn't free.
+     */
+    public boolean hold(String customerId, Product product, int quantity) {
+        Map<Product, Hold> holds = holdsByCustomer.computeIfAbsent(customerId,
+                                                                   k -> new HashMap<>());
+        synchronized (holds) {
+            if (!product.tryReserve(quantity)) {
+                return false;
+            }
+            Hold hold = holds.computeIfAbsent(product, p -> new Hold(customerId, p));
+            hold.quantity += quantity;
+            schedule(hold, currentTick() + ttlTicks);
+        }
+        ensureTicker();
+        return true;
+    }
+    
+    /**
+     * Drops the customer's hold on a product, freeing its stock.
+     */
+    public void release(String customerId, Product product) {
+        Map<Product, Hold> holds = holdsByCustomer.get(customerId);
+        if (holds == null) {
+            return;
+        }
+        synchronized (holds) {
+            Hold hold = holds.remove(product);
+            if (hold != null) {
+                unschedule(hold);
+                product.releaseReservation(hold.quantity);
+            }
+        }
+    }
+    
+    public void releaseAll(String customerId) {
+        Map<Product, Hold> holds = holdsByCustomer.get(customerId);
+        if (holds == null) {
+            return;
+        }
+        synchronized (holds) {
+            for (Hold hold : holds.values()) {
+                unschedule(hold);
+                hold.product.releaseReservation(hold.quantity);
+            }
+            holds.clear();
+        }
+    }
+    
+    /**
+     * Runs a checkout against the customer's current holds (product to held
+     * quantity) with expiry locked out. The checkout returns a failure
+     * message, or null once it has turned the holds into stock decrements,
+     * in which case the holds are dropped without releasing anything.
+     */
+    public String convert(String customerId, Function<Map<Product, Integer>, String> checkout) {
+        Map<Product, Hold> holds = holdsByCustomer.computeIfAbsent(customerId,
+                                                                   k -> new HashMap<>());
+        synchronized (holds) {
+            Map<Product, Integer> held = new HashMap<>();
+            for (Hold hold : holds.values()) {
+                held.put(hold.product, hold.quantity);
+            }
+            
+            String failure = checkout.apply(held);
+            if (failure == null) {
+                for (Hold hold : holds.values()) {
+                    unschedule(hold);
+                }
+                holds.clear();
+            }
+            return failure;
+        }
+    }
+    
+    public int getHeldQuantity(String customerId, Product product) {
+        Map<Product, Hold> holds = holdsByCustomer.get(customerId);
+        if (holds == null) {
+            return 0;
+        }
+        synchronized (holds) {
+            Hold hold = holds.get(product);
+            return hold == null ? 0 : hold.quantity;
+        }
+    }
+    
+    // Timer wheel
+    private void schedule(Hold hold, long deadlineTick) {
+        unschedule(hold);
+        hold.deadlineTick = deadlineTick;
+        wheel.get((int) (deadlineTick % WHEEL_SLOTS)).add(hold);
+    }
+    
+    private void unschedule(Hold hold) {
+        if (hold.deadlineTick > 0) {
+            wheel.get((int) (hold.deadlineTick % WHEEL_SLOTS)).remove(hold);
+        }
+    }
+    
+    /**
+     * Expires every hold due up to now. Holds in a visited slot that are due
+     * on a later turn of the wheel are left in place.
+     */
+    void advance() {
+        long now = currentTick();
+        for (long tick = Math.max(expiredTick + 1, now - WHEEL_SLOTS + 1); tick <= now; tick++) {
+            for (Hold hold : wheel.get((int) (tick % WHEEL_SLOTS))) {
+                if (hold.deadlineTick <= now) {
+                    expire(hold, now);
+                }
+            }
+        }
+        expiredTick = now;
+    }
+    
+    private void expire(Hold hold, long now) {
+        Map<Product, Hold> holds = holdsByCustomer.get(hold.customerId);
+        if (holds == null) {
+            return;
+        }
+        synchronized (holds) {
+            // Re-check: the hold may have been extended or taken meanwhile
+            if (holds.get(hold.product) == hold && hold.deadlineTick <= now) {
+                holds.remove(hold.product);
+                unschedule(hold);
+                hold.product.releaseReservation(hold.quantity);
+            }
+        }
+    }
+    
+    private long currentTick() {
+        return (System.currentTimeMillis() - startMillis) / TICK_MILLIS + 1;
+    }
+    
+    private synchronized void ensureTicker() {
+        if (ticker != null) {
+            return;
+        }
+        ticker = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "cart-hold-expiry");
+            thread.setDaemon(true);
+            return thread;
+        });
+        ticker.scheduleAtFixedRate(this::advance, TICK_MILLIS, TICK_MILLIS, TimeUnit.MILLISECONDS);
+    }
+    
+    public synchronized void shutdown() {
+        if (ticker != null) {
+            ticker.shutdownNow();
+            ticker = null;
+        }
+    }
+}
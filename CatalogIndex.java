@@ -0,0 +1,38 @@
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * CatalogIndex - Secondary indexes over the product catalog
+ * Keeps category membership up to date, so category lookups cost
+ * O(result size) instead of a catalog scan
+ */
+public class CatalogIndex {
+    
+    private Map<String, Set<Product>> byCategory; // lowercase category -> products
+    
+    public CatalogIndex() {
+        this.byCategory = new ConcurrentHashMap<>();
+    }
+    
+    public void addProduct(Product product) {
+        byCategory.computeIfAbsent(categoryKey(product.getCategory()),
+                                   k -> ConcurrentHashMap.newKeySet())
+                  .add(product);
+    }
+    
+    public void removeProduct(Product product) {
+        Set<Product> category = byCategory.get(categoryKey(product.getCategory()));
+        if (category != null) {
+            category.remove(product);
+        }
+    }
+    
+    public List<Product> getByCategory(String category) {
+        Set<Product> products = byCategory.get(categoryKey(category));
+        return products == null ? new ArrayList<>() : new ArrayList<>(products);
+    }
+    
+    private static String categoryKey(String category) {
+        return category.toLowerCase(Locale.ROOT);
+    }
+}
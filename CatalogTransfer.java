@@ -0,0 +1,484 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * CatalogTransfer - Streaming bulk import and export of products, customers and reviews
+ * Files are CSV (with a header row naming the columns) or JSON lines (one
+ * flat object per line), chosen by extension: .jsonl/.json for JSON lines,
+ * anything else for CSV.
+ *
+ * Imports read the file in batches of lines and hand them to a pool of
+ * parse workers. At most a few batches are in flight at once, so memory
+ * stays bounded however large the file is, and batches are applied in
+ * file order, each through the system's bulk add so indexes are built
+ * once per batch.
+ *
+ * Exports walk the system's live maps and write each row as it's read,
+ * without copying the catalog first. A product's row is read under its
+ * lock, so its price and stock come from the same moment.
+ *
+ * Columns:
+ *   products  productId, name, category, description, price, stock, sellerId, lowStockThreshold
+ *   customers customerId, name, email, phone, address
+ *   reviews   productId, customerId, customerName, rating, comment, verified, reviewDate
+ */
+public class CatalogTransfer {
+    
+    public enum Format { CSV, JSON_LINES }
+    
+    private static final String[] PRODUCT_COLUMNS = { "productId", "name", "category",
+        "description", "price", "stock", "sellerId", "lowStockThreshold" };
+    private static final String[] CUSTOMER_COLUMNS = { "customerId", "name", "email",
+        "phone", "address" };
+    private static final String[] REVIEW_COLUMNS = { "productId", "customerId", "customerName",
+        "rating", "comment", "verified", "reviewDate" };
+    
+    private static final int BATCH_LINES = 10_000;
+    
+    private final ECommerceSystem system;
+    private final int workers;
+    
+    public CatalogTransfer(ECommerceSystem system) {
+        this(system, Runtime.getRuntime().availableProcessors());
+    }
+    
+    public CatalogTransfer(ECommerceSystem system, int workers) {
+        this.system = system;
+        this.workers = Math.max(1, workers);
+    }
+    
+    public static Format formatFor(Path path) {
+        String name = path.getFileName().toString().toLowerCase();
+        return name.endsWith(".jsonl") || name.endsWith(".json") ? Format.JSON_LINES : Format.CSV;
+    }
+    
+    // Imports
+    public long importProducts(Path path) throws IOException {
+        return importFile(path, PRODUCT_COLUMNS, CatalogTransfer::toProduct, system::addProducts);
+    }
+    
+    public long importCustomers(Path path) throws IOException {
+        return importFile(path, CUSTOMER_COLUMNS, CatalogTransfer::toCustomer, system::addCustomers);
+    }
+    
+    /**
+     * Reviews for products the system doesn't have are skipped and not
+     * counted.
+     */
+    public long importReviews(Path path) throws IOException {
+        long[] added = new long[1];
+        importFile(path, REVIEW_COLUMNS, fields -> fields, batch -> {
+            Map<String, List<Review>> byProduct = new LinkedHashMap<>();
+            for (Map<String, String> fields : batch) {
+                byProduct.computeIfAbsent(fields.get("productId"), k -> new ArrayList<>())
+                         .add(toReview(fields));
+            }
+            added[0] += system.addReviews(byProduct);
+        });
+        return added[0];
+    }
+    
+    /**
+     * Streams the file through the parse workers and feeds each parsed
+     * batch to the sink, in file order, on the calling thread. Returns the
+     * number of records parsed.
+     */
+    private <T> long importFile(Path path, String[] columns, Function<Map<String, String>, T> mapper,
+                                Consumer<List<T>> sink) throws IOException {
+        Format format = formatFor(path);
+        ExecutorService pool = Executors.newFixedThreadPool(workers, r -> {
+            Thread thread = new Thread(r, "import-parser");
+            thread.setDaemon(true);
+            return thread;
+        });
+        Deque<Future<List<T>>> inFlight = new ArrayDeque<>();
+        long count = 0;
+        
+        try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            String[] header = columns;
+            if (format == Format.CSV) {
+                String first = reader.readLine();
+                if (first == null) {
+                    return 0;
+                }
+                header = parseCsvLine(stripBom(first)).toArray(new String[0]);
+            }
+            String[] names = header;
+            
+            List<String> lines = new ArrayList<>(BATCH_LINES);
+            for (String line; (line = reader.readLine()) != null; ) {
+                if (line.isBlank()) {
+                    continue;
+                }
+                lines.add(line);
+                if (lines.size() == BATCH_LINES) {
+                    count += submit(pool, inFlight, lines, format, names, mapper, sink);
+                    lines = new ArrayList<>(BATCH_LINES);
+                }
+            }
+            if (!lines.isEmpty()) {
+                count += submit(pool, inFlight, lines, format, names, mapper, sink);
+            }
+            while (!inFlight.isEmpty()) {
+                count += drain(inFlight, sink);
+            }
+            return count;
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+    
+    private <T> long submit(ExecutorService pool, Deque<Future<List<T>>> inFlight,
+                            List<String> lines, Format format, String[] names,
+                            Function<Map<String, String>, T> mapper,
+                            Consumer<List<T>> sink) throws IOException {
+        inFlight.add(pool.submit(() -> {
+            List<T> parsed = new ArrayList<>(lines.size());
+            for (String line : lines) {
+                Map<String, String> fields = format == Format.CSV ?
+                    toFields(names, parseCsvLine(line)) : parseJsonLine(line);
+                parsed.add(mapper.apply(fields));
+            }
+            return parsed;
+        }));
+        
+        // Bound memory: keep only a couple of batches per worker in flight
+        long applied = 0;
+        while (inFlight.size() > workers * 2) {
+            applied += drain(inFlight, sink);
+        }
+        return applied;
+    }
+    
+    private static <T> long drain(Deque<Future<List<T>>> inFlight,
+                                  Consumer<List<T>> sink) throws IOException {
+        try {
+            List<T> batch = inFlight.poll().get();
+            sink.accept(batch);
+            return batch.size();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Import interrupted");
+        } catch (ExecutionException e) {
+            throw new IOException("Malformed record: " + e.getCause().getMessage(), e.getCause());
+        }
+    }
+    
+    private static Map<String, String> toFields(String[] names, List<String> values) {
+        Map<String, String> fields = new HashMap<>();
+        for (int i = 0; i < names.length && i < values.size(); i++) {
+            fields.put(names[i], values.get(i));
+        }
+        return fields;
+    }
+    
+    private static String stripBom(String line) {
+        return line.startsWith("\uFEFF") ? line.substring(1) : line;
+    }
+    
+    // Record mapping
+    private static Product toProduct(Map<String, String> fields) {
+        Product product = new Product(required(fields, "productId"), text(fields, "name"),
+                                      text(fields, "category"), text(fields, "description"),
+                                      Double.parseDouble(required(fields, "price")),
+                                      Integer.parseInt(required(fields, "stock")),
+                                      text(fields, "sellerId"));
+        String threshold = fields.get("lowStockThreshold");
+        if (threshold != null && !threshold.isEmpty()) {
+            product.setLowStockThreshold(Integer.parseInt(threshold));
+        }
+        return product;
+    }
+    
+    private static Customer toCustomer(Map<String, String> fields) {
+        return new Customer(required(fields, "customerId"), text(fields, "name"),
+                            text(fields, "email"), text(fields, "phone"), text(fields, "address"));
+    }
+    
+    private static Review toReview(Map<String, String> fields) {
+        String date = fields.get("reviewDate");
+        return new Review(required(fields, "customerId"), text(fields, "customerName"),
+                          Integer.parseInt(required(fields, "rating")), text(fields, "comment"),
+                          Boolean.parseBoolean(fields.get("verified")),
+                          date == null || date.isEmpty() ? LocalDateTime.now() :
+                                                           LocalDateTime.parse(date));
+    }
+    
+    private static String required(Map<String, String> fields, String name) {
+        String value = fields.get(name);
+        if (value == null || value.isEmpty()) {
+            throw new IllegalArgumentException("missing " + name);
+        }
+        return value;
+    }
+    
+    private static String text(Map<String, String> fields, String name) {
+        return fields.getOrDefault(name, "");
+    }
+    
+    // Exports
+    /**
+     * Receives each exported row as soon as it's read.
+     */
+    private interface RowWriter {
+        void write(Object[] row) throws IOException;
+    }
+    
+    private interface RowSource {
+        void writeRows(RowWriter out) throws IOException;
+    }
+    
+    public long exportProducts(Path path) throws IOException {
+        return exportFile(path, PRODUCT_COLUMNS, out -> {
+            for (Product product : system.liveProducts()) {
+                Object[] row;
+                synchronized (product) {
+                    row = new Object[] {
+                        product.getProductId(), product.getName(), product.getCategory(),
+                        product.getDescription(), product.getPrice(), product.getStockQuantity(),
+                        product.getSellerId(), product.getLowStockThreshold() };
+                }
+                out.write(row);
+            }
+        });
+    }
+    
+    public long exportCustomers(Path path) throws IOException {
+        return exportFile(path, CUSTOMER_COLUMNS, out -> {
+            for (Customer customer : system.liveCustomers()) {
+                out.write(new Object[] {
+                    customer.getCustomerId(), customer.getName(), customer.getEmail(),
+                    customer.getPhone(), customer.getAddress() });
+            }
+        });
+    }
+    
+    /**
+     * Each product's reviews come from a snapshot of its review list, so a
+     * review added mid-export is either written whole or not at all.
+     */
+    public long exportReviews(Path path) throws IOException {
+        return exportFile(path, REVIEW_COLUMNS, out -> {
+            for (Product product : system.liveProducts()) {
+                for (Review review : product.getReviews()) {
+                    out.write(new Object[] {
+                        product.getProductId(), review.getCustomerId(), review.getCustomerName(),
+                        review.getRating(), review.getComment(), review.isVerified(),
+                        review.getReviewDate() });
+                }
+            }
+        });
+    }
+    
+    private long exportFile(Path path, String[] columns, RowSource rows) throws IOException {
+        Format format = formatFor(path);
+        long[] count = new long[1];
+        try (BufferedWriter writer = new BufferedWriter(
+                Files.newBufferedWriter(path, StandardCharsets.UTF_8), 256 * 1024)) {
+            if (format == Format.CSV) {
+                writer.write(String.join(",", columns));
+                writer.newLine();
+            }
+            StringBuilder line = new StringBuilder(256);
+            rows.writeRows(row -> {
+                line.setLength(0);
+                if (format == Format.CSV) {
+                    appendCsv(line, columns, row);
+                } else {
+                    appendJson(line, columns, row);
+                }
+                writer.append(line);
+                writer.newLine();
+                count[0]++;
+            });
+        }
+        return count[0];
+    }
+    
+    // CSV
+    /**
+     * Splits one CSV record. Quoted fields may hold commas and doubled
+     * quotes; records can't span lines, so exports flatten line breaks.
+     */
+    static List<String> parseCsvLine(String line) {
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"') {
+                    if (i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                        field.append('"');
+                        i++;
+                    } else {
+                        quoted = false;
+                    }
+                } else {
+                    field.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        fields.add(field.toString());
+        return fields;
+    }
+    
+    private static void appendCsv(StringBuilder line, String[] columns, Object[] row) {
+        for (int i = 0; i < columns.length; i++) {
+            if (i > 0) {
+                line.append(',');
+            }
+            String value = row[i] == null ? "" : row[i].toString().replace('\n', ' ').replace('\r', ' ');
+            if (value.indexOf(',') >= 0 || value.indexOf('"') >= 0) {
+                line.append('"').append(value.replace("\"", "\"\"")).append('"');
+            } else {
+                line.append(value);
+            }
+        }
+    }
+    
+    // JSON lines
+    /**
+     * Parses one flat JSON object. Values come back as strings; nested
+     * objects and arrays are not supported.
+     */
+    static Map<String, String> parseJsonLine(String line) {
+        Map<String, String> fields = new HashMap<>();
+        int[] position = { skipSpace(line, 0) };
+        expect(line, position, '{');
+        if (peek(line, position) == '}') {
+            return fields;
+        }
+        while (true) {
+            String key = readJsonString(line, position);
+            expect(line, position, ':');
+            fields.put(key, readJsonValue(line, position));
+            char next = peek(line, position);
+            position[0]++;
+            if (next == '}') {
+                return fields;
+            }
+            if (next != ',') {
+                throw new IllegalArgumentException("expected , or } in: " + line);
+            }
+        }
+    }
+    
+    private static String readJsonValue(String line, int[] position) {
+        if (peek(line, position) == '"') {
+            return readJsonString(line, position);
+        }
+        int start = position[0];
+        while (position[0] < line.length() && ",} \t".indexOf(line.charAt(position[0])) < 0) {
+            position[0]++;
+        }
+        String literal = line.substring(start, position[0]);
+        return literal.equals("null") ? null : literal;
+    }
+    
+    private static String readJsonString(String line, int[] position) {
+        expect(line, position, '"');
+        StringBuilder value = new StringBuilder();
+        int i = position[0];
+        while (true) {
+            char c = line.charAt(i++);
+            if (c == '"') {
+                break;
+            }
+            if (c != '\\') {
+                value.append(c);
+                continue;
+            }
+            char escaped = line.charAt(i++);
+            switch (escaped) {
+                case 'n': value.append('\n'); break;
+                case 't': value.append('\t'); break;
+                case 'r': value.append('\r'); break;
+                case 'b': value.append('\b'); break;
+                case 'f': value.append('\f'); break;
+                case 'u':
+                    value.append((char) Integer.parseInt(line.substring(i, i + 4), 16));
+                    i += 4;
+                    break;
+                default: value.append(escaped);
+            }
+        }
+        position[0] = i;
+        return value.toString();
+    }
+    
+    private static void expect(String line, int[] position, char expected) {
+        if (peek(line, position) != expected) {
+            throw new IllegalArgumentException("expected " + expected + " in: " + line);
+        }
+        position[0]++;
+    }
+    
+    private static char peek(String line, int[] position) {
+        position[0] = skipSpace(line, position[0]);
+        if (position[0] >= line.length()) {
+            throw new IllegalArgumentException("unexpected end of: " + line);
+        }
+        return line.charAt(position[0]);
+    }
+    
+    private static int skipSpace(String line, int i) {
+        while (i < line.length() && Character.isWhitespace(line.charAt(i))) {
+            i++;
+        }
+        return i;
+    }
+    
+    private static void appendJson(StringBuilder line, String[] columns, Object[] row) {
+        line.append('{');
+        for (int i = 0; i < columns.length; i++) {
+            if (i > 0) {
+                line.append(',');
+            }
+            line.append('"').append(columns[i]).append("\":");
+            Object value = row[i];
+            if (value == null) {
+                line.append("null");
+            } else if (value instanceof Number || value instanceof Boolean) {
+                line.append(value);
+            } else {
+                appendJsonString(line, value.toString());
+            }
+        }
+        line.append('}');
+    }
+    
+    static void appendJsonString(StringBuilder out, String value) {
+        out.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"': out.append("\\\""); break;
+                case '\\': out.append("\\\\"); break;
+                case '\n': out.append("\\n"); break;
+                case '\r': out.append("\\r"); break;
+                case '\t': out.append("\\t"); break;
+                default:
+                    if (c < 0x20) {
+                        out.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        out.append(c);
+                    }
+            }
+        }
+        out.append('"');
+    }
+}
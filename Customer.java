@@ -1,4 +1,8 @@
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Customer - Represents a customer in the e-commerce system
@@ -12,6 +16,9 @@ public class Customer {
     private ShoppingCart cart;
     private List<Order> orderHistory;
     private Set<String> wishlist; // Product IDs
+    private Set<String> purchasedProducts; // Product IDs from delivered orders
+    private AtomicLong spentCents;
+    private AtomicInteger activeOrders;
     
     public Customer(String customerId, String name, String email, 
                    String phone, String address) {
@@ -21,8 +28,11 @@ public class Customer {
         this.phone = phone;
         this.address = address;
         this.cart = new ShoppingCart(customerId);
-        this.orderHistory = new ArrayList<>();
-        this.wishlist = new HashSet<>();
+        this.orderHistory = new CopyOnWriteArrayList<>();
+        this.wishlist = ConcurrentHashMap.newKeySet();
+        this.purchasedProducts = ConcurrentHashMap.newKeySet();
+        this.spentCents = new AtomicLong();
+        this.activeOrders = new AtomicInteger();
     }
     
     public void addToWishlist(String productId) {
@@ -39,10 +49,64 @@ public class Customer {
     
     public void addOrder(Order order) {
         orderHistory.add(order);
+        if (order.getStatus() != Order.OrderStatus.CANCELLED) {
+            adjustTotals(order, 1);
+        }
+        if (order.getStatus() == Order.OrderStatus.DELIVERED) {
+            addPurchased(order);
+        }
+    }
+    
+    /**
+     * Keeps the running totals and purchased set in step with an order's
+     * status transition.
+     */
+    public void onOrderStatusChanged(Order order, Order.OrderStatus oldStatus,
+                                     Order.OrderStatus newStatus) {
+        if (newStatus == Order.OrderStatus.CANCELLED) {
+            adjustTotals(order, -1);
+        } else if (newStatus == Order.OrderStatus.DELIVERED) {
+            addPurchased(order);
+        }
+    }
+    
+    private void adjustTotals(Order order, int sign) {
+        spentCents.addAndGet(sign * Math.round(order.getTotalAmount() * 100));
+        activeOrders.addAndGet(sign);
+    }
+    
+    private void addPurchased(Order order) {
+        for (int line = 0; line < order.getLineCount(); line++) {
+            purchasedProducts.add(order.getLineProduct(line).getProductId());
+        }
     }
     
     public List<Order> getOrderHistory() {
-        return new ArrayList<>(orderHistory);
+        return Collections.unmodifiableList(orderHistory);
+    }
+    
+    /**
+     * One page of this customer's orders, newest first. History only ever
+     * grows at the end, so the cursor is the position to continue below.
+     */
+    public Page<Order> getOrderHistory(String cursor, int limit) {
+        if (limit <= 0) {
+            throw new IllegalArgumentException("limit must be positive");
+        }
+        int end;
+        try {
+            end = cursor == null ? orderHistory.size() : Integer.parseInt(cursor);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid cursor");
+        }
+        end = Math.max(0, Math.min(end, orderHistory.size()));
+        
+        int start = Math.max(0, end - limit);
+        List<Order> page = new ArrayList<>(end - start);
+        for (int i = end - 1; i >= start; i--) {
+            page.add(orderHistory.get(i));
+        }
+        return new Page<>(page, start > 0 ? String.valueOf(start) : null);
     }
     
     public Order getOrder(String orderId) {
@@ -63,28 +127,23 @@ public class Customer {
     }
     
     public double getTotalSpent() {
-        return orderHistory.stream()
-                          .filter(o -> o.getStatus() != Order.OrderStatus.CANCELLED)
-                          .mapToDouble(Order::getTotalAmount)
-                          .sum();
+        return spentCents.get() / 100.0;
     }
     
     public int getTotalOrders() {
-        return (int) orderHistory.stream()
-                                 .filter(o -> o.getStatus() != Order.OrderStatus.CANCELLED)
-                                 .count();
+        return activeOrders.get();
+    }
+    
+    public boolean hasPurchased(String productId) {
+        return purchasedProducts.contains(productId);
+    }
+    
+    public Set<String> getPurchasedProductIds() {
+        return Collections.unmodifiableSet(purchasedProducts);
     }
     
     public List<String> getPurchasedProducts() {
-        Set<String> products = new HashSet<>();
-        for (Order order : orderHistory) {
-            if (order.getStatus() == Order.OrderStatus.DELIVERED) {
-                for (Product product : order.getItems().keySet()) {
-                    products.add(product.getProductId());
-                }
-            }
-        }
-        return new ArrayList<>(products);
+        return new ArrayList<>(purchasedProducts);
     }
     
     // Getters
@@ -0,0 +1,63 @@
+/**
+ * DomainEvent - One change in the store, as carried by the EventBus
+ * Instances are ring-buffer slots that get overwritten as the ring wraps,
+ * so a handler must copy whatever it needs before returning and never
+ * keep the event itself.
+ */
+public class DomainEvent {
+    
+    public enum Type {
+        ORDER_PLACED,          // order, newStatus
+        ORDER_STATUS_CHANGED,  // order, oldStatus, newStatus
+        STOCK_CHANGED,         // product, oldQuantity, newQuantity
+        REVIEW_ADDED           // product, review
+    }
+    
+    private Type type;
+    private long timestamp;
+    private Order order;
+    private Product product;
+    private Review review;
+    private Order.OrderStatus oldStatus;
+    private Order.OrderStatus newStatus;
+    private int oldQuantity;
+    private int newQuantity;
+    
+    void set(Type type, Order order, Product product, Review review,
+             Order.OrderStatus oldStatus, Order.OrderStatus newStatus,
+             int oldQuantity, int newQuantity) {
+        this.type = type;
+        this.timestamp = System.currentTimeMillis();
+        this.order = order;
+        this.product = product;
+        this.review = review;
+        this.oldStatus = oldStatus;
+        this.newStatus = newStatus;
+        this.oldQuantity = oldQuantity;
+        this.newQuantity = newQuantity;
+    }
+    
+    public Type getType() { return type; }
+    public long getTimestamp() { return timestamp; }
+    public Order getOrder() { return order; }
+    public Product getProduct() { return product; }
+    public Review getReview() { return review; }
+    public Order.OrderStatus getOldStatus() { return oldStatus; }
+    public Order.OrderStatus getNewStatus() { return newStatus; }
+    public int getOldQuantity() { return oldQuantity; }
+    public int getNewQuantity() { return newQuantity; }
+    
+    @Override
+    public String toString() {
+        switch (type) {
+            case ORDER_PLACED:
+                return type + " " + order.getOrderId();
+            case ORDER_STATUS_CHANGED:
+                return type + " " + order.getOrderId() + " " + oldStatus + " -> " + newStatus;
+            case STOCK_CHANGED:
+                return type + " " + product.getProductId() + " " + oldQuantity + " -> " + newQuantity;
+            default:
+                return type + " " + product.getProductId() + " " + review.getRating() + "*";
+        }
+    }
+}
@@ -1,3 +1,9 @@
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.nio.file.Paths;
+import java.time.Duration;
 import java.util.*;
 
 /**
@@ -8,10 +14,70 @@ public class ECommerceApp {
     private static Scanner scanner = new Scanner(System.in);
     private static ECommerceSystem system = new ECommerceSystem();
     private static String currentCustomerId = null;
+    private static final int PAGE_SIZE = 10;
     
     public static void main(String[] args) {
         System.out.println("Initializing E-Commerce System...\n");
-        setupDemoData();
+        
+        // Optional arguments: [dataDirectory] [--http port] [--bind address] [--metrics file]
+        String dataDirectory = null;
+        int httpPort = -1;
+        String bindAddress = null;
+        String metricsFile = null;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--http") && i + 1 < args.length) {
+                httpPort = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--bind") && i + 1 < args.length) {
+                bindAddress = args[++i];
+            } else if (args[i].equals("--metrics") && i + 1 < args.length) {
+                metricsFile = args[++i];
+            } else {
+                dataDirectory = args[i];
+            }
+        }
+        
+        // Data directory: state is recovered from and saved there
+        if (dataDirectory != null) {
+            try {
+                system.enablePersistence(Paths.get(dataDirectory), Duration.ofMinutes(5));
+            } catch (IOException e) {
+                System.out.println("Could not open data directory: " + e.getMessage());
+                return;
+            }
+        }
+        
+        if (system.getProductCount() == 0) {
+            setupDemoData();
+        } else {
+            System.out.println("Restored saved store data.\n");
+        }
+        
+        // Metrics are collected from the start and appended to the file every minute
+        if (metricsFile != null) {
+            try {
+                system.getMetrics().setEnabled(true);
+                system.getMetrics().startDump(Duration.ofMinutes(1),
+                    new PrintStream(new FileOutputStream(metricsFile, true), true, "UTF-8"));
+            } catch (IOException e) {
+                System.out.println("Could not open metrics file: " + e.getMessage());
+                return;
+            }
+        }
+        
+        // The HTTP front end serves the same store as the menu; loopback only unless --bind
+        if (httpPort >= 0) {
+            try {
+                InetAddress address = bindAddress == null ? InetAddress.getLoopbackAddress() :
+                                      InetAddress.getByName(bindAddress);
+                StoreServer server = new StoreServer(system, address, httpPort);
+                server.start();
+                System.out.println("HTTP API listening on http://" + address.getHostAddress() + ":" +
+                                   server.getPort() + "/\n");
+            } catch (IOException e) {
+                System.out.println("Could not start HTTP server: " + e.getMessage());
+                return;
+            }
+        }
         
         displayMainMenu();
     }
@@ -212,10 +278,23 @@ public class ECommerceApp {
         System.out.println("                      ALL PRODUCTS");
         System.out.println("=".repeat(70) + "\n");
         
-        for (Product product : system.getAllProducts()) {
-            System.out.println(product);
-            System.out.println();
-        }
+        String cursor = null;
+        do {
+            Page<Product> page = system.listProducts(ECommerceSystem.ProductSort.ID, false,
+                                                     null, false, cursor, PAGE_SIZE);
+            for (Product product : page.getItems()) {
+                System.out.println(product);
+                System.out.println();
+            }
+            cursor = page.getNextCursor();
+        } while (cursor != null && showMore());
+    }
+    
+    private static boolean showMore() {
+        System.out.print("Show more? (yes/no): ");
+        String answer = scanner.nextLine().toLowerCase();
+        System.out.println();
+        return answer.equals("yes") || answer.equals("y");
     }
     
     private static void browseProducts() {
@@ -281,6 +360,13 @@ public class ECommerceApp {
         
         if (results.isEmpty()) {
             System.out.println("\nNo products found.");
+            List<Autocomplete.Suggestion> suggestions = system.autocomplete(keyword, 5);
+            if (!suggestions.isEmpty()) {
+                System.out.println("Did you mean:");
+                for (Autocomplete.Suggestion suggestion : suggestions) {
+                    System.out.println("  " + suggestion);
+                }
+            }
         } else {
             System.out.println("\n" + "=".repeat(70));
             System.out.println("                    SEARCH RESULTS");
@@ -357,9 +443,9 @@ public class ECommerceApp {
     
     private static void viewOrders() {
         Customer customer = system.getCustomer(currentCustomerId);
-        List<Order> orders = customer.getOrderHistory();
+        Page<Order> page = customer.getOrderHistory(null, PAGE_SIZE);
         
-        if (orders.isEmpty()) {
+        if (page.getItems().isEmpty()) {
             System.out.println("\nNo orders yet.");
             return;
         }
@@ -368,12 +454,18 @@ public class ECommerceApp {
         System.out.println("                      YOUR ORDERS");
         System.out.println("=".repeat(70) + "\n");
         
-        for (Order order : orders) {
-            System.out.printf("%s | Status: %s | Total: $%.2f | Items: %d\n",
-                order.getOrderId(),
-                order.getStatus(),
-                order.getTotalAmount(),
-                order.getTotalItems());
+        while (true) {
+            for (Order order : page.getItems()) {
+                System.out.printf("%s | Status: %s | Total: $%.2f | Items: %d\n",
+                    order.getOrderId(),
+                    order.getStatus(),
+                    order.getTotalAmount(),
+                    order.getTotalItems());
+            }
+            if (!page.hasMore() || !showMore()) {
+                break;
+            }
+            page = customer.getOrderHistory(page.getNextCursor(), PAGE_SIZE);
         }
     }
     
@@ -434,6 +526,7 @@ public class ECommerceApp {
         System.out.println("3. View Low Stock Products");
         System.out.println("4. Sales Analytics");
         System.out.println("5. Best Selling Products");
+        System.out.println("6. Performance Metrics");
         System.out.println("0. Back");
         System.out.println("=".repeat(70));
         System.out.print("Select: ");
@@ -457,23 +550,30 @@ public class ECommerceApp {
             case 5:
                 viewBestSellers();
                 break;
+            case 6:
+                viewMetrics();
+                break;
         }
     }
     
     private static void viewAllOrders() {
-        List<Order> orders = system.getAllOrders();
-        
         System.out.println("\n" + "=".repeat(70));
         System.out.println("                      ALL ORDERS");
         System.out.println("=".repeat(70) + "\n");
         
-        for (Order order : orders) {
-            System.out.printf("%s | Customer: %s | Status: %s | Total: $%.2f\n",
-                order.getOrderId(),
-                order.getCustomerId(),
-                order.getStatus(),
-                order.getTotalAmount());
-        }
+        // Newest first, a page at a time
+        String cursor = null;
+        do {
+            Page<Order> page = system.listOrders(null, true, cursor, PAGE_SIZE);
+            for (Order order : page.getItems()) {
+                System.out.printf("%s | Customer: %s | Status: %s | Total: $%.2f\n",
+                    order.getOrderId(),
+                    order.getCustomerId(),
+                    order.getStatus(),
+                    order.getTotalAmount());
+            }
+            cursor = page.getNextCursor();
+        } while (cursor != null && showMore());
     }
     
     private static void updateOrderStatus() {
@@ -512,6 +612,9 @@ public class ECommerceApp {
         System.out.println("                  LOW STOCK PRODUCTS");
         System.out.println("=".repeat(70) + "\n");
         
+        System.out.printf("Inventory value: $%.2f | Out of stock: %d products\n\n",
+                          system.getInventoryValue(), system.getOutOfStockProducts().size());
+        
         if (lowStock.isEmpty()) {
             System.out.println("No low stock items.");
         } else {
@@ -528,13 +631,19 @@ public class ECommerceApp {
         System.out.println("=".repeat(70) + "\n");
         
         System.out.printf("Total Revenue: $%.2f\n", system.getTotalRevenue());
-        System.out.printf("Total Orders: %d\n\n", system.getAllOrders().size());
+        System.out.printf("Total Orders: %d\n\n", system.getOrderCount());
         
         System.out.println("Sales by Category:");
         Map<String, Integer> sales = system.getCategorySales();
         for (Map.Entry<String, Integer> entry : sales.entrySet()) {
             System.out.printf("  %s: %d units\n", entry.getKey(), entry.getValue());
         }
+        
+        System.out.println("\nLast 24 Hours: " + system.getSalesTotals(Duration.ofHours(24)));
+        Map<String, Double> recent = system.getRevenueByCategory(Duration.ofHours(24));
+        for (Map.Entry<String, Double> entry : recent.entrySet()) {
+            System.out.printf("  %s: $%.2f\n", entry.getKey(), entry.getValue());
+        }
     }
     
     private static void viewBestSellers() {
@@ -548,4 +657,20 @@ public class ECommerceApp {
             System.out.println();
         }
     }
+    
+    private static void viewMetrics() {
+        StoreMetrics metrics = system.getMetrics();
+        
+        System.out.println("\n" + "=".repeat(70));
+        System.out.println("                  PERFORMANCE METRICS");
+        System.out.println("=".repeat(70) + "\n");
+        System.out.println(metrics.report());
+        
+        System.out.print((metrics.isEnabled() ? "Disable" : "Enable") + " metrics? (yes/no): ");
+        String answer = scanner.nextLine().toLowerCase();
+        if (answer.equals("yes") || answer.equals("y")) {
+            metrics.setEnabled(!metrics.isEnabled());
+            System.out.println("\nMetrics " + (metrics.isEnabled() ? "enabled." : "disabled."));
+        }
+    }
 }
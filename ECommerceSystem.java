@@ -1,61 +1,401 @@
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 
 /**
  * ECommerceSystem - Main system managing products, customers, and orders
  * Includes recommendation engine and inventory management
+ *
+ * Safe for concurrent use: checkouts lock only the stock stripes of the
+ * products in their cart, so carts with disjoint products run in parallel.
+ * With persistence enabled every mutation is also written to a StateStore.
+ * Items in a cart hold their stock for CART_HOLD_TTL, so a checkout only
+ * fails late if the hold lapsed.
  */
 public class ECommerceSystem {
     
+    private static final Duration CART_HOLD_TTL = Duration.ofMinutes(15);
+    
+    public enum ProductSort { ID, PRICE, RATING }
+    
     private Map<String, Product> products;
     private Map<String, Customer> customers;
     private Map<String, Order> orders;
-    private int orderCounter;
+    private InventoryStore inventory;
+    private SearchIndex searchIndex;
+    private CatalogIndex catalogIndex;
+    private OrderStatusIndex orderStatusIndex;
+    private ListingIndex<Product> productsById;
+    private ListingIndex<Product> productsByPrice;
+    private ListingIndex<Product> productsByRating;
+    private ListingIndex<Order> ordersByDate;
+    private ListingIndex<Customer> customersById;
+    private FacetIndex facets;
+    private Autocomplete autocomplete;
+    private Leaderboard bestSellers;
+    private Leaderboard topRated;
+    private SalesAnalytics analytics;
+    private SalesRollup salesRollup;
+    private EventBus events;
+    private EventBus.Subscription rollupFeed;
+    private RecommendationEngine recommendationEngine;
+    private StripedLock stockLocks;
+    private CartReservations cartHolds;
+    private StoreMetrics metrics;
+    private AtomicInteger orderCounter;
+    private volatile StateStore store;
+    private volatile MappedCatalogStore catalog;
     
     public ECommerceSystem() {
-        this.products = new HashMap<>();
-        this.customers = new HashMap<>();
-        this.orders = new HashMap<>();
-        this.orderCounter = 1000;
+        this.products = new ConcurrentHashMap<>();
+        this.customers = new ConcurrentHashMap<>();
+        this.orders = new ConcurrentHashMap<>();
+        this.inventory = new InventoryStore();
+        this.searchIndex = new SearchIndex();
+        this.catalogIndex = new CatalogIndex();
+        this.orderStatusIndex = new OrderStatusIndex();
+        this.productsById = new ListingIndex<>("products-id");
+        this.productsByPrice = new ListingIndex<>("products-price");
+        this.productsByRating = new ListingIndex<>("products-rating");
+        this.ordersByDate = new ListingIndex<>("orders-date");
+        this.customersById = new ListingIndex<>("customers-id");
+        this.facets = new FacetIndex();
+        this.autocomplete = new Autocomplete();
+        this.bestSellers = new Leaderboard();
+        this.topRated = new Leaderboard();
+        this.analytics = new SalesAnalytics();
+        this.salesRollup = new SalesRollup();
+        this.events = new EventBus(8192);
+        this.recommendationEngine = new RecommendationEngine();
+        this.stockLocks = new StripedLock(256);
+        this.cartHolds = new CartReservations(CART_HOLD_TTL);
+        this.metrics = new StoreMetrics();
+        
+        // Windowed rollups are maintained off the checkout path
+        this.rollupFeed = events.subscribe("sales-rollup", this::onRollupEvent);
+        this.orderCounter = new AtomicInteger(1000);
+    }
+    
+    // Persistence
+    /**
+     * Recovers any state saved in the directory, then journals every
+     * further mutation there. Pass a null interval to snapshot manually.
+     */
+    public void enablePersistence(Path directory, Duration snapshotInterval) throws IOException {
+        StateStore opened = StateStore.open(directory, this);
+        if (snapshotInterval != null) {
+            opened.scheduleSnapshots(this, snapshotInterval);
+        }
+        this.store = opened;
+    }
+    
+    public void snapshot() throws IOException {
+        if (store != null) {
+            store.snapshot(this);
+        }
+    }
+    
+    public void closePersistence() throws IOException {
+        if (store != null) {
+            store.close();
+            store = null;
+        }
+    }
+    
+    /**
+     * Runs a public mutation inside the store's mutation bracket, then waits
+     * for its log records to reach disk once its locks are released.
+     */
+    private <T> T mutate(Supplier<T> mutation) {
+        StateStore journal = store;
+        if (journal == null) {
+            return mutation.get();
+        }
+        
+        T result;
+        journal.beginMutation();
+        try {
+            result = mutation.get();
+        } finally {
+            journal.endMutation();
+        }
+        journal.awaitDurable();
+        return result;
+    }
+    
+    private void journal(Consumer<StateStore> record) {
+        StateStore journal = store;
+        if (journal != null) {
+            record.accept(journal);
+        }
+    }
+    
+    // Catalog backend
+    /**
+     * Serves products missing from memory out of a mapped catalog file. A
+     * product is loaded, indexed and kept resident the first time it is
+     * looked up; until then it doesn't appear in listings or search.
+     * Attach before enabling persistence so recovered orders can find
+     * their products.
+     */
+    public void attachCatalog(MappedCatalogStore catalog) {
+        this.catalog = catalog;
     }
     
     // Product Management
     public void addProduct(Product product) {
-        products.put(product.getProductId(), product);
+        mutate(() -> {
+            registerProduct(product);
+            journal(j -> j.logProduct(product));
+            return null;
+        });
+    }
+    
+    private void registerProduct(Product product) {
+        product.attach(inventory);
+        Product previous = products.put(product.getProductId(), product);
+        if (previous != null && previous != product) {
+            retireProduct(previous, product);
+        }
+        
+        product.setStockListener(this::onStockChanged);
+        catalogIndex.addProduct(product);
+        searchIndex.addProduct(product);
+        addListings(product);
+        refreshTopRated(product);
+    }
+    
+    /**
+     * Drops an instance that was replaced under the same ID from the
+     * indexes that hold it by reference. Its best-seller count carries
+     * over to the replacement, since sales belong to the product ID. Its
+     * inventory ordinal is freed last, once no index looks it up.
+     */
+    private void retireProduct(Product previous, Product replacement) {
+        previous.setStockListener(null);
+        catalogIndex.removeProduct(previous);
+        facets.removeProduct(previous);
+        topRated.remove(previous);
+        double sold = bestSellers.getScore(previous);
+        bestSellers.remove(previous);
+        if (sold > 0) {
+            bestSellers.increment(replacement, sold);
+        }
+        previous.detach();
+    }
+    
+    private void addListings(Product product) {
+        productsById.put(product.getProductId(), 0, product);
+        productsByPrice.put(product.getProductId(), product.getPrice(), product);
+        facets.addProduct(product);
+        autocomplete.addProduct(product);
+    }
+    
+    /**
+     * Adds a batch of products, building the catalog and search indexes for
+     * the whole batch at once instead of per insert. A product whose ID
+     * appears twice keeps the later one.
+     */
+    public void addProducts(Collection<Product> batch) {
+        mutate(() -> {
+            Map<String, Product> unique = new LinkedHashMap<>();
+            for (Product product : batch) {
+                unique.put(product.getProductId(), product);
+            }
+            for (Product product : unique.values()) {
+                product.checkStore(inventory);
+            }
+            
+            for (Product product : unique.values()) {
+                Product previous = products.put(product.getProductId(), product);
+                if (previous != null && previous != product) {
+                    retireProduct(previous, product);
+                }
+                product.attach(inventory);
+                product.setStockListener(this::onStockChanged);
+                journal(j -> j.logProduct(product));
+            }
+            
+            unique.values().parallelStream().forEach(product -> {
+                catalogIndex.addProduct(product);
+                addListings(product);
+            });
+            searchIndex.addAll(unique.values());
+            for (Product product : unique.values()) {
+                refreshTopRated(product);
+            }
+            return null;
+        });
     }
     
     public Product getProduct(String productId) {
-        return products.get(productId);
+        Product product = products.get(productId);
+        if (product == null && catalog != null) {
+            product = loadFromCatalog(productId);
+        }
+        return product;
+    }
+    
+    private Product loadFromCatalog(String productId) {
+        Product loaded = catalog.getProduct(productId);
+        if (loaded == null) {
+            return null;
+        }
+        
+        Product existing = products.putIfAbsent(productId, loaded);
+        if (existing != null) {
+            return existing;
+        }
+        loaded.attach(inventory);
+        loaded.setStockListener(this::onStockChanged);
+        catalogIndex.addProduct(loaded);
+        searchIndex.addProduct(loaded);
+        addListings(loaded);
+        refreshTopRated(loaded);
+        return loaded;
+    }
+    
+    public int getProductCount() {
+        return products.size();
     }
     
     public List<Product> getAllProducts() {
         return new ArrayList<>(products.values());
     }
     
+    /**
+     * The live catalog, without getAllProducts' copy, for one streaming
+     * pass. Iteration is weakly consistent.
+     */
+    Collection<Product> liveProducts() {
+        return Collections.unmodifiableCollection(products.values());
+    }
+    
     public List<Product> getProductsByCategory(String category) {
-        return products.values().stream()
-                      .filter(p -> p.getCategory().equalsIgnoreCase(category))
-                      .collect(Collectors.toList());
+        return catalogIndex.getByCategory(category);
     }
     
     public List<Product> searchProducts(String keyword) {
-        String lowerKeyword = keyword.toLowerCase();
-        return products.values().stream()
-                      .filter(p -> p.getName().toLowerCase().contains(lowerKeyword) ||
-                                  p.getDescription().toLowerCase().contains(lowerKeyword) ||
-                                  p.getCategory().toLowerCase().contains(lowerKeyword))
-                      .collect(Collectors.toList());
+        return searchProducts(keyword, SearchIndex.MatchMode.ALL);
+    }
+    
+    public List<Product> searchProducts(String query, SearchIndex.MatchMode mode) {
+        long start = metrics.start();
+        List<Product> results = new ArrayList<>();
+        for (String productId : searchIndex.search(query, mode)) {
+            Product product = products.get(productId);
+            if (product != null) {
+                results.add(product);
+            }
+        }
+        metrics.record(StoreMetrics.Operation.SEARCH, start);
+        return results;
+    }
+    
+    /**
+     * Products matching the text (null or blank for the whole catalog) and
+     * the query's filters, with counts for every category, price band,
+     * rating band and in-stock. Each facet's counts apply all the other
+     * filters but not its own, so they show what changing it would give.
+     */
+    public FacetIndex.Result searchFacets(String text, FacetIndex.Query query) {
+        long start = metrics.start();
+        List<Product> candidates = null;
+        if (text != null && !text.isBlank()) {
+            candidates = new ArrayList<>();
+            for (String productId : searchIndex.search(text, SearchIndex.MatchMode.ALL)) {
+                Product product = products.get(productId);
+                if (product != null) {
+                    candidates.add(product);
+                }
+            }
+        }
+        FacetIndex.Result result = facets.query(candidates, query);
+        metrics.record(StoreMetrics.Operation.SEARCH, start);
+        return result;
     }
     
+    /**
+     * Type-ahead suggestions for a partly typed query: product names and
+     * categories with a word starting with it, best sellers first, topped
+     * up with near misses (one or two typos) when exact ones run short.
+     */
+    public List<Autocomplete.Suggestion> autocomplete(String prefix, int limit) {
+        long start = metrics.start();
+        List<Autocomplete.Suggestion> suggestions = autocomplete.suggest(prefix, limit);
+        metrics.record(StoreMetrics.Operation.AUTOCOMPLETE, start);
+        return suggestions;
+    }
+    
+    // Inventory reports are linear scans over the inventory columns
     public List<Product> getLowStockProducts() {
-        return products.values().stream()
-                      .filter(Product::isLowStock)
-                      .collect(Collectors.toList());
+        return inventory.scanLowStock();
+    }
+    
+    public List<Product> getOutOfStockProducts() {
+        return inventory.scanOutOfStock();
+    }
+    
+    /**
+     * Price times stock, summed over the catalog.
+     */
+    public double getInventoryValue() {
+        return inventory.getInventoryValue();
+    }
+    
+    /**
+     * One page of the catalog in the given order, optionally limited to a
+     * category and to products in stock. Pass null for the first page and
+     * each page's cursor for the next; the cursor only works with the sort
+     * it came from. Ties (equal price or rating) fall back to product ID.
+     */
+    public Page<Product> listProducts(ProductSort sort, boolean descending, String category,
+                                      boolean inStockOnly, String cursor, int limit) {
+        ListingIndex<Product> index = sort == ProductSort.PRICE ? productsByPrice :
+                                      sort == ProductSort.RATING ? productsByRating : productsById;
+        return index.page(cursor, limit, descending, product ->
+            (category == null || product.getCategory().equalsIgnoreCase(category)) &&
+            (!inStockOnly || product.isInStock()));
+    }
+    
+    private void onStockChanged(Product product, int oldQuantity, int newQuantity) {
+        events.publishStockChanged(product, oldQuantity, newQuantity);
+        if (oldQuantity > 0 && newQuantity <= 0) {
+            metrics.recordStockOut();
+        }
+        productsByPrice.update(product.getProductId(), product.getPrice(), product);
+        facets.update(product);
+        if ((oldQuantity > 0) != (newQuantity > 0)) {
+            refreshTopRated(product);
+        }
     }
     
     // Customer Management
     public void addCustomer(Customer customer) {
-        customers.put(customer.getCustomerId(), customer);
+        mutate(() -> {
+            customers.put(customer.getCustomerId(), customer);
+            customersById.put(customer.getCustomerId(), 0, customer);
+            journal(j -> j.logCustomer(customer));
+            return null;
+        });
+    }
+    
+    public void addCustomers(Collection<Customer> batch) {
+        mutate(() -> {
+            for (Customer customer : batch) {
+                customers.put(customer.getCustomerId(), customer);
+                customersById.put(customer.getCustomerId(), 0, customer);
+                journal(j -> j.logCustomer(customer));
+            }
+            return null;
+        });
     }
     
     public Customer getCustomer(String customerId) {
@@ -66,31 +406,78 @@ public class ECommerceSystem {
         return new ArrayList<>(customers.values());
     }
     
+    Collection<Customer> liveCustomers() {
+        return Collections.unmodifiableCollection(customers.values());
+    }
+    
+    /**
+     * One page of customers in ID order; see listProducts for cursors.
+     */
+    public Page<Customer> listCustomers(String cursor, int limit) {
+        return customersById.page(cursor, limit, false, null);
+    }
+    
     // Shopping Cart Operations
     public boolean addToCart(String customerId, String productId, int quantity) {
         Customer customer = customers.get(customerId);
-        Product product = products.get(productId);
+        Product product = getProduct(productId);
         
         if (customer == null || product == null) {
             return false;
         }
         
-        return customer.getCart().addItem(product, quantity);
+        if (quantity <= 0) {
+            return false;
+        }
+        
+        long start = metrics.start();
+        ShoppingCart cart = customer.getCart();
+        boolean added = mutate(() -> {
+            synchronized (cart) {
+                if (!cartHolds.hold(customerId, product, quantity)) {
+                    metrics.recordStockCheckFailure();
+                    return false;
+                }
+                cart.addHeldItem(product, quantity);
+                journal(j -> j.logCartAdd(customerId, productId, quantity));
+                return true;
+            }
+        });
+        metrics.record(StoreMetrics.Operation.ADD_TO_CART, start);
+        return added;
     }
     
     public boolean removeFromCart(String customerId, String productId) {
         Customer customer = customers.get(customerId);
-        Product product = products.get(productId);
+        Product product = getProduct(productId);
         
         if (customer == null || product == null) {
             return false;
         }
         
-        return customer.getCart().removeItem(product);
+        ShoppingCart cart = customer.getCart();
+        return mutate(() -> {
+            synchronized (cart) {
+                cartHolds.release(customerId, product);
+                if (!cart.removeItem(product)) {
+                    return false;
+                }
+                journal(j -> j.logCartRemove(customerId, productId));
+                return true;
+            }
+        });
     }
     
     // Order Processing
     public OrderResult placeOrder(String customerId, String paymentMethod) {
+        long start = metrics.start();
+        OrderResult result = mutate(() -> checkout(customerId, paymentMethod));
+        metrics.record(StoreMetrics.Operation.PLACE_ORDER, start);
+        metrics.recordCheckout(result);
+        return result;
+    }
+    
+    private OrderResult checkout(String customerId, String paymentMethod) {
         Customer customer = customers.get(customerId);
         
         if (customer == null) {
@@ -99,49 +486,283 @@ public class ECommerceSystem {
         
         ShoppingCart cart = customer.getCart();
         
-        if (cart.isEmpty()) {
-            return new OrderResult(false, "Cart is empty", null);
+        // One checkout per cart at a time; other customers are unaffected
+        synchronized (cart) {
+            if (cart.isEmpty()) {
+                return new OrderResult(false, "Cart is empty", null);
+            }
+            
+            // Turns the cart's holds into stock decrements, topping up any shortfall
+            Map<Product, Integer> items = cart.getItems();
+            String failure = cartHolds.convert(customerId, held -> reserveStock(items, held));
+            if (failure != null) {
+                return new OrderResult(false, failure, null);
+            }
+            
+            // Create order
+            String orderId = generateOrderId();
+            Order order = new Order(
+                orderId,
+                customerId,
+                items,
+                cart.getTotal(),
+                customer.getAddress(),
+                paymentMethod
+            );
+            
+            // Save order
+            journal(j -> j.logOrder(order));
+            registerOrder(order, customer);
+            
+            // Clear cart
+            cart.clear();
+            
+            return new OrderResult(true, "Order placed successfully!", order);
+        }
+    }
+    
+    /**
+     * Places many orders at once, for flash sales and marketplace imports.
+     * Stock for the whole batch is reserved in one pass under a single
+     * acquisition of the stripes it touches, and the batch shares one log
+     * flush. Requests are filled in order; one that can't be filled fails
+     * on its own without affecting the rest. Results line up with requests.
+     */
+    public List<OrderResult> placeOrders(Collection<OrderRequest> requests) {
+        long start = metrics.start();
+        List<OrderResult> results = mutate(() -> batchCheckout(new ArrayList<>(requests)));
+        metrics.record(StoreMetrics.Operation.PLACE_ORDERS, start);
+        if (metrics.isEnabled()) {
+            for (OrderResult result : results) {
+                metrics.recordCheckout(result);
+            }
+        }
+        return results;
+    }
+    
+    private List<OrderResult> batchCheckout(List<OrderRequest> requests) {
+        OrderResult[] results = new OrderResult[requests.size()];
+        List<Map<Product, Integer>> resolved = new ArrayList<>(requests.size());
+        Set<Product> touched = new HashSet<>();
+        
+        for (int i = 0; i < requests.size(); i++) {
+            Map<Product, Integer> items = resolveRequest(requests.get(i));
+            if (items == null) {
+                results[i] = new OrderResult(false, "Unknown customer or product, or invalid quantity", null);
+            } else if (items.isEmpty()) {
+                results[i] = new OrderResult(false, "Order has no items", null);
+            } else {
+                touched.addAll(items.keySet());
+            }
+            resolved.add(items);
         }
         
-        // Check stock availability
-        for (Map.Entry<Product, Integer> entry : cart.getItems().entrySet()) {
-            Product product = entry.getKey();
-            int quantity = entry.getValue();
+        reserveBatch(resolved, touched, results);
+        
+        Map<Product, Integer> unitsSold = new HashMap<>();
+        for (int i = 0; i < requests.size(); i++) {
+            if (results[i] != null) {
+                continue;
+            }
+            OrderRequest request = requests.get(i);
+            Customer customer = customers.get(request.getCustomerId());
+            Map<Product, Integer> items = resolved.get(i);
+            double total = 0;
+            for (Map.Entry<Product, Integer> entry : items.entrySet()) {
+                total += entry.getKey().getPrice() * entry.getValue();
+            }
             
-            if (!product.isAvailable(quantity)) {
-                return new OrderResult(false, 
-                    "Insufficient stock for: " + product.getName(), null);
+            Order order = new Order(generateOrderId(), customer.getCustomerId(), items, total,
+                                    customer.getAddress(), request.getPaymentMethod());
+            journal(j -> j.logBatchOrder(order));
+            registerOrder(order, customer, false);
+            for (Map.Entry<Product, Integer> entry : items.entrySet()) {
+                unitsSold.merge(entry.getKey(), entry.getValue(), Integer::sum);
             }
+            results[i] = new OrderResult(true, "Order placed successfully!", order);
         }
         
-        // Create order
-        String orderId = generateOrderId();
-        Order order = new Order(
-            orderId,
-            customerId,
-            cart.getItems(),
-            cart.getTotal(),
-            customer.getAddress(),
-            paymentMethod
-        );
+        // One leaderboard move per product instead of one per order line
+        for (Map.Entry<Product, Integer> entry : unitsSold.entrySet()) {
+            bestSellers.increment(entry.getKey(), entry.getValue());
+            autocomplete.recordSales(entry.getKey(), entry.getValue());
+        }
+        return Arrays.asList(results);
+    }
+    
+    /**
+     * The request's products and quantities, or null if its customer or a
+     * product is missing or a quantity isn't positive. Null IDs and
+     * quantities count as missing, so one bad request only fails itself.
+     */
+    private Map<Product, Integer> resolveRequest(OrderRequest request) {
+        if (request.getCustomerId() == null || request.getItems() == null ||
+            customers.get(request.getCustomerId()) == null) {
+            return null;
+        }
+        Map<Product, Integer> items = new LinkedHashMap<>();
+        for (Map.Entry<String, Integer> line : request.getItems().entrySet()) {
+            Product product = line.getKey() == null ? null : getProduct(line.getKey());
+            if (product == null || line.getValue() == null || line.getValue() <= 0) {
+                return null;
+            }
+            items.merge(product, line.getValue(), Integer::sum);
+        }
+        return items;
+    }
+    
+    /**
+     * Takes every stripe the batch needs in one ascending pass, fills
+     * requests in order against a running tally of stock, then takes each
+     * product's stock once for its whole share of the batch. Leaves a
+     * failure result for every request that couldn't be filled.
+     */
+    private void reserveBatch(List<Map<Product, Integer>> resolved, Set<Product> touched,
+                              OrderResult[] results) {
+        int[] held = stockLocks.lockAll(touched);
+        try {
+            Map<Product, Integer> remaining = new HashMap<>();
+            for (Product product : touched) {
+                remaining.put(product, product.getAvailableQuantity());
+            }
+            
+            Map<Product, Integer> demand = new HashMap<>();
+            String[] failures = new String[results.length];
+            for (int i = 0; i < results.length; i++) {
+                if (results[i] != null) {
+                    continue;
+                }
+                Map<Product, Integer> items = resolved.get(i);
+                for (Map.Entry<Product, Integer> entry : items.entrySet()) {
+                    if (remaining.get(entry.getKey()) < entry.getValue()) {
+                        failures[i] = "Insufficient stock for: " + entry.getKey().getName();
+                        break;
+                    }
+                }
+                if (failures[i] == null) {
+                    for (Map.Entry<Product, Integer> entry : items.entrySet()) {
+                        remaining.merge(entry.getKey(), -entry.getValue(), Integer::sum);
+                        demand.merge(entry.getKey(), entry.getValue(), Integer::sum);
+                    }
+                }
+            }
+            
+            Map<Product, Integer> taken = new HashMap<>();
+            for (Map.Entry<Product, Integer> entry : demand.entrySet()) {
+                if (!entry.getKey().tryReduceStock(entry.getValue())) {
+                    // A direct stock edit raced the tally; put back and go one by one
+                    for (Map.Entry<Product, Integer> done : taken.entrySet()) {
+                        done.getKey().increaseStock(done.getValue());
+                    }
+                    reserveEach(resolved, results);
+                    return;
+                }
+                taken.put(entry.getKey(), entry.getValue());
+            }
+            
+            for (int i = 0; i < results.length; i++) {
+                if (failures[i] != null) {
+                    results[i] = new OrderResult(false, failures[i], null);
+                }
+            }
+        } finally {
+            stockLocks.unlockAll(held);
+        }
+    }
+    
+    private void reserveEach(List<Map<Product, Integer>> resolved, OrderResult[] results) {
+        for (int i = 0; i < results.length; i++) {
+            if (results[i] == null) {
+                String failure = reserveStock(resolved.get(i), Collections.emptyMap());
+                if (failure != null) {
+                    results[i] = new OrderResult(false, failure, null);
+                }
+            }
+        }
+    }
+    
+    /**
+     * Publishes an order and folds it into every derived view according to
+     * its current status.
+     */
+    private void registerOrder(Order order, Customer customer) {
+        registerOrder(order, customer, true);
+    }
+    
+    /**
+     * As registerOrder, optionally leaving the best-seller update to a
+     * caller that aggregates it across a batch.
+     */
+    private void registerOrder(Order order, Customer customer, boolean rankSales) {
+        order.setStatusListener(this::onOrderStatusChanged);
         
-        // Reduce stock
-        for (Map.Entry<Product, Integer> entry : cart.getItems().entrySet()) {
-            entry.getKey().reduceStock(entry.getValue());
+        // The customer counts the order before anyone can look it up and
+        // change its status, so a transition is never applied to totals
+        // that don't include it yet
+        if (customer != null) {
+            synchronized (customer) {
+                if (order.getStatus() == Order.OrderStatus.DELIVERED) {
+                    recommendationEngine.recordDelivery(order, customer.getPurchasedProductIds());
+                }
+                customer.addOrder(order);
+            }
         }
         
-        // Save order
-        orders.put(orderId, order);
-        customer.addOrder(order);
+        events.publishOrderPlaced(order);
+        orderStatusIndex.addOrder(order);
+        orders.put(order.getOrderId(), order);
+        ordersByDate.put(order.getOrderId(), orderTime(order), order);
         
-        // Clear cart
-        cart.clear();
+        if (order.getStatus() != Order.OrderStatus.CANCELLED) {
+            if (rankSales) {
+                recordSales(order, 1);
+            }
+            analytics.recordOrder(order);
+        }
         
-        return new OrderResult(true, "Order placed successfully!", order);
+        if (customer != null) {
+            recommendationEngine.invalidate(customer.getCustomerId());
+        }
+    }
+    
+    /**
+     * Checks and decrements stock for every line as one unit while holding
+     * the stripes for those products. Quantities in held are the caller's
+     * own cart holds and count as available to it. Returns a failure
+     * message, or null if all stock was reserved.
+     */
+    private String reserveStock(Map<Product, Integer> items, Map<Product, Integer> held) {
+        int[] stripes = stockLocks.lockAll(items.keySet());
+        try {
+            // Check stock availability
+            for (Map.Entry<Product, Integer> entry : items.entrySet()) {
+                Product product = entry.getKey();
+                if (!product.isAvailable(entry.getValue() - held.getOrDefault(product, 0))) {
+                    return "Insufficient stock for: " + product.getName();
+                }
+            }
+            
+            // Reduce stock, undoing earlier lines if a direct stock edit raced us
+            List<Map.Entry<Product, Integer>> reduced = new ArrayList<>();
+            for (Map.Entry<Product, Integer> entry : items.entrySet()) {
+                Product product = entry.getKey();
+                if (!product.tryCommitReservation(held.getOrDefault(product, 0), entry.getValue())) {
+                    for (Map.Entry<Product, Integer> done : reduced) {
+                        done.getKey().increaseStock(done.getValue());
+                        done.getKey().tryReserve(held.getOrDefault(done.getKey(), 0));
+                    }
+                    return "Insufficient stock for: " + product.getName();
+                }
+                reduced.add(entry);
+            }
+            return null;
+        } finally {
+            stockLocks.unlockAll(stripes);
+        }
     }
     
     private String generateOrderId() {
-        return "ORD" + (orderCounter++);
+        return "ORD" + orderCounter.getAndIncrement();
     }
     
     public Order getOrder(String orderId) {
@@ -153,9 +774,53 @@ public class ECommerceSystem {
     }
     
     public List<Order> getOrdersByStatus(Order.OrderStatus status) {
-        return orders.values().stream()
-                    .filter(o -> o.getStatus() == status)
-                    .collect(Collectors.toList());
+        return orderStatusIndex.getOrders(status);
+    }
+    
+    /**
+     * One page of orders by order date, newest first unless told otherwise,
+     * optionally only those in one status (null for all).
+     */
+    public Page<Order> listOrders(Order.OrderStatus status, boolean newestFirst,
+                                  String cursor, int limit) {
+        return ordersByDate.page(cursor, limit, newestFirst,
+                                 status == null ? null : order -> order.getStatus() == status);
+    }
+    
+    private static double orderTime(Order order) {
+        return order.getOrderDate().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+    
+    private void onOrderStatusChanged(Order order, Order.OrderStatus oldStatus,
+                                      Order.OrderStatus newStatus) {
+        journal(j -> j.logStatus(order, newStatus));
+        events.publishStatusChanged(order, oldStatus, newStatus);
+        orderStatusIndex.onStatusChanged(order, oldStatus, newStatus);
+        if (newStatus == Order.OrderStatus.CANCELLED) {
+            recordSales(order, -1);
+            analytics.recordCancellation(order);
+        }
+        
+        Customer customer = customers.get(order.getCustomerId());
+        if (customer == null) {
+            return;
+        }
+        
+        // Serialize per customer so the model sees each delivery's prior purchases
+        synchronized (customer) {
+            if (newStatus == Order.OrderStatus.DELIVERED) {
+                recommendationEngine.recordDelivery(order, customer.getPurchasedProductIds());
+                recommendationEngine.invalidate(customer.getCustomerId());
+            }
+            customer.onOrderStatusChanged(order, oldStatus, newStatus);
+        }
+    }
+    
+    private void recordSales(Order order, int sign) {
+        for (int line = 0; line < order.getLineCount(); line++) {
+            bestSellers.increment(order.getLineProduct(line), sign * order.getLineQuantity(line));
+            autocomplete.recordSales(order.getLineProduct(line), sign * order.getLineQuantity(line));
+        }
     }
     
     public boolean updateOrderStatus(String orderId, Order.OrderStatus newStatus) {
@@ -163,7 +828,7 @@ public class ECommerceSystem {
         if (order == null) {
             return false;
         }
-        return order.updateStatus(newStatus);
+        return mutate(() -> order.updateStatus(newStatus));
     }
     
     public boolean cancelOrder(String orderId) {
@@ -172,30 +837,39 @@ public class ECommerceSystem {
             return false;
         }
         
-        if (!order.canCancel()) {
-            return false;
-        }
-        
-        // Restore stock
-        for (Map.Entry<Product, Integer> entry : order.getItems().entrySet()) {
-            entry.getKey().increaseStock(entry.getValue());
+        long start = metrics.start();
+        boolean cancelled = mutate(() -> {
+            // Cancel first so two concurrent cancels can't both restore stock
+            if (!order.cancel()) {
+                return false;
+            }
+            
+            restock(order);
+            journal(j -> j.logRestock(order));
+            return true;
+        });
+        metrics.record(StoreMetrics.Operation.CANCEL_ORDER, start);
+        return cancelled;
+    }
+    
+    private void restock(Order order) {
+        for (int line = 0; line < order.getLineCount(); line++) {
+            order.getLineProduct(line).increaseStock(order.getLineQuantity(line));
         }
-        
-        return order.cancel();
     }
     
     // Review System
     public boolean addReview(String customerId, String productId, 
                             int rating, String comment) {
         Customer customer = customers.get(customerId);
-        Product product = products.get(productId);
+        Product product = getProduct(productId);
         
         if (customer == null || product == null) {
             return false;
         }
         
         // Check if customer purchased this product
-        boolean purchased = customer.getPurchasedProducts().contains(productId);
+        boolean purchased = customer.hasPurchased(productId);
         
         Review review = new Review(
             customerId,
@@ -205,121 +879,308 @@ public class ECommerceSystem {
             purchased
         );
         
-        product.addReview(review);
+        mutate(() -> {
+            product.addReview(review);
+            events.publishReviewAdded(product, review);
+            refreshTopRated(product);
+            journal(j -> j.logReview(productId, review));
+            return null;
+        });
         return true;
     }
     
+    /**
+     * Attaches imported reviews as they are, keeping their verified flag
+     * and date, and re-ranks each product once. Reviews for unknown
+     * products are skipped. Returns how many were added.
+     */
+    public int addReviews(Map<String, List<Review>> reviewsByProduct) {
+        return mutate(() -> {
+            int added = 0;
+            for (Map.Entry<String, List<Review>> entry : reviewsByProduct.entrySet()) {
+                Product product = getProduct(entry.getKey());
+                if (product == null) {
+                    continue;
+                }
+                for (Review review : entry.getValue()) {
+                    product.addReview(review);
+                    events.publishReviewAdded(product, review);
+                    journal(j -> j.logReview(entry.getKey(), review));
+                    added++;
+                }
+                refreshTopRated(product);
+            }
+            return added;
+        });
+    }
+    
+    // Recovery hooks used by StateStore; nothing here is journaled
+    void restoreCartItem(String customerId, String productId, int quantity) {
+        Customer customer = customers.get(customerId);
+        Product product = getProduct(productId);
+        if (customer != null && product != null) {
+            customer.getCart().restoreItem(product, quantity);
+        }
+    }
+    
+    /**
+     * Re-registers a persisted order. Replaying a logged checkout also takes
+     * its stock, and for a cart checkout empties the cart, as the original
+     * placeOrder did; batch orders never used the cart.
+     */
+    void restoreOrder(Order order, boolean takeStock, boolean clearCart) {
+        Customer customer = customers.get(order.getCustomerId());
+        if (takeStock) {
+            for (int line = 0; line < order.getLineCount(); line++) {
+                order.getLineProduct(line).reduceStock(order.getLineQuantity(line));
+            }
+        }
+        if (clearCart && customer != null) {
+            customer.getCart().clear();
+        }
+        
+        registerOrder(order, customer);
+        restoreNextOrderNumber(parseOrderNumber(order.getOrderId()) + 1);
+    }
+    
+    void restoreStatus(String orderId, Order.OrderStatus status, LocalDateTime at) {
+        Order order = orders.get(orderId);
+        if (order != null) {
+            order.updateStatus(status, at);
+        }
+    }
+    
+    void restoreStock(String orderId) {
+        Order order = orders.get(orderId);
+        if (order != null) {
+            restock(order);
+        }
+    }
+    
+    void restoreReview(String productId, Review review) {
+        Product product = getProduct(productId);
+        if (product != null) {
+            product.addReview(review);
+            events.publishReviewAdded(product, review);
+            refreshTopRated(product);
+        }
+    }
+    
+    int getNextOrderNumber() {
+        return orderCounter.get();
+    }
+    
+    void restoreNextOrderNumber(int next) {
+        orderCounter.accumulateAndGet(next, Math::max);
+    }
+    
+    private static int parseOrderNumber(String orderId) {
+        try {
+            return Integer.parseInt(orderId.substring(3));
+        } catch (RuntimeException e) {
+            return 0;
+        }
+    }
+    
     // Recommendation Engine
     public List<Product> getRecommendations(String customerId, int limit) {
+        long start = metrics.start();
+        List<Product> result = recommend(customerId, limit);
+        metrics.record(StoreMetrics.Operation.RECOMMENDATIONS, start);
+        return result;
+    }
+    
+    private List<Product> recommend(String customerId, int limit) {
         Customer customer = customers.get(customerId);
         if (customer == null) {
             return new ArrayList<>();
         }
         
-        // Get categories from customer's purchase history
-        Set<String> purchasedCategories = new HashSet<>();
-        for (String productId : customer.getPurchasedProducts()) {
-            Product product = products.get(productId);
-            if (product != null) {
-                purchasedCategories.add(product.getCategory());
-            }
+        Set<String> purchased = customer.getPurchasedProductIds();
+        List<Product> cached = recommendationEngine.getCached(customerId, limit, purchased);
+        if (cached != null) {
+            return new ArrayList<>(cached);
         }
         
-        // Recommend products from same categories that customer hasn't bought
-        List<Product> recommendations = new ArrayList<>();
-        Set<String> purchased = new HashSet<>(customer.getPurchasedProducts());
+        long version = recommendationEngine.getVersion(customerId);
+        long stamp = recommendationEngine.getStamp();
+        Set<Product> recommendations = new LinkedHashSet<>();
         
-        for (Product product : products.values()) {
-            if (!purchased.contains(product.getProductId()) &&
-                purchasedCategories.contains(product.getCategory()) &&
-                product.isInStock()) {
+        // Items most often bought together with what the customer owns
+        for (String productId : recommendationEngine.getSimilarItems(purchased, limit * 2)) {
+            Product product = products.get(productId);
+            if (product != null && product.isInStock() && recommendations.size() < limit) {
                 recommendations.add(product);
             }
         }
         
-        // Sort by rating
-        recommendations.sort((p1, p2) -> 
-            Double.compare(p2.getAverageRating(), p1.getAverageRating()));
+        // Then the best rated products from categories they've bought from
+        if (recommendations.size() < limit) {
+            Set<String> purchasedCategories = new HashSet<>();
+            for (String productId : purchased) {
+                Product product = products.get(productId);
+                if (product != null) {
+                    purchasedCategories.add(product.getCategory());
+                }
+            }
+            
+            PriorityQueue<Product> best = new PriorityQueue<>(
+                Comparator.comparingDouble(Product::getAverageRating));
+            for (String category : purchasedCategories) {
+                for (Product product : catalogIndex.getByCategory(category)) {
+                    if (!purchased.contains(product.getProductId()) &&
+                        !recommendations.contains(product) && product.isInStock()) {
+                        best.offer(product);
+                        if (best.size() > limit) {
+                            best.poll();
+                        }
+                    }
+                }
+            }
+            
+            List<Product> byRating = new ArrayList<>(best);
+            byRating.sort((p1, p2) ->
+                Double.compare(p2.getAverageRating(), p1.getAverageRating()));
+            for (Product product : byRating) {
+                if (recommendations.size() >= limit) {
+                    break;
+                }
+                recommendations.add(product);
+            }
+        }
         
         // If not enough, add popular products
         if (recommendations.size() < limit) {
-            List<Product> popular = getTopRatedProducts(limit);
-            for (Product product : popular) {
-                if (!recommendations.contains(product) && 
-                    !purchased.contains(product.getProductId())) {
+            for (Product product : getTopRatedProducts(limit + purchased.size())) {
+                if (recommendations.size() >= limit) {
+                    break;
+                }
+                if (!purchased.contains(product.getProductId())) {
                     recommendations.add(product);
                 }
             }
         }
         
-        return recommendations.stream().limit(limit).collect(Collectors.toList());
+        List<Product> result = new ArrayList<>(recommendations);
+        recommendationEngine.cache(customerId, limit, result, version, stamp);
+        return result;
     }
     
     public List<Product> getTopRatedProducts(int limit) {
-        return products.values().stream()
-                      .filter(Product::isInStock)
-                      .sorted((p1, p2) -> {
-                          // Sort by rating, then by number of reviews
-                          int ratingCompare = Double.compare(
-                              p2.getAverageRating(), 
-                              p1.getAverageRating()
-                          );
-                          if (ratingCompare != 0) return ratingCompare;
-                          return Integer.compare(
-                              p2.getTotalReviews(), 
-                              p1.getTotalReviews()
-                          );
-                      })
-                      .limit(limit)
-                      .collect(Collectors.toList());
+        long start = metrics.start();
+        List<Product> top = topRated.top(limit);
+        metrics.record(StoreMetrics.Operation.TOP_RATED, start);
+        return top;
+    }
+    
+    /**
+     * Re-ranks a product by rating, or drops it while out of stock. Runs
+     * under the product's lock so it can't race a stock change.
+     */
+    private void refreshTopRated(Product product) {
+        synchronized (product) {
+            productsByRating.put(product.getProductId(), product.getAverageRating(), product);
+            facets.update(product);
+            if (product.isInStock()) {
+                topRated.update(product, product.getAverageRating(),
+                                product.getTotalReviews());
+            } else {
+                topRated.remove(product);
+            }
+        }
     }
     
     // Analytics
     public double getTotalRevenue() {
-        return orders.values().stream()
-                    .filter(o -> o.getStatus() != Order.OrderStatus.CANCELLED)
-                    .mapToDouble(Order::getTotalAmount)
-                    .sum();
+        return analytics.getTotalRevenue();
     }
     
     public Map<String, Integer> getCategorySales() {
-        Map<String, Integer> sales = new HashMap<>();
-        
-        for (Order order : orders.values()) {
-            if (order.getStatus() != Order.OrderStatus.CANCELLED) {
-                for (Map.Entry<Product, Integer> entry : order.getItems().entrySet()) {
-                    String category = entry.getKey().getCategory();
-                    int quantity = entry.getValue();
-                    sales.put(category, sales.getOrDefault(category, 0) + quantity);
-                }
-            }
-        }
-        
+        long start = metrics.start();
+        Map<String, Integer> sales = analytics.getCategorySales();
+        metrics.record(StoreMetrics.Operation.CATEGORY_SALES, start);
         return sales;
     }
     
+    // Windowed reports wait for the rollup feed to catch up with every
+    // event published before the call
+    public SalesRollup.Totals getSalesTotals(Duration window) {
+        long start = metrics.start();
+        rollupFeed.awaitCaughtUp();
+        SalesRollup.Totals report = salesRollup.getTotals(window);
+        metrics.record(StoreMetrics.Operation.SALES_REPORT, start);
+        return report;
+    }
+    
+    public Map<String, Double> getRevenueByCategory(Duration window) {
+        long start = metrics.start();
+        rollupFeed.awaitCaughtUp();
+        Map<String, Double> report = salesRollup.getRevenueByCategory(window);
+        metrics.record(StoreMetrics.Operation.SALES_REPORT, start);
+        return report;
+    }
+    
+    public Map<String, SalesRollup.Totals> getProductSales(Duration window) {
+        long start = metrics.start();
+        rollupFeed.awaitCaughtUp();
+        Map<String, SalesRollup.Totals> report = salesRollup.getTotalsByProduct(window);
+        metrics.record(StoreMetrics.Operation.SALES_REPORT, start);
+        return report;
+    }
+    
+    private void onRollupEvent(DomainEvent event, long sequence, boolean endOfBatch) {
+        if (event.getType() == DomainEvent.Type.ORDER_PLACED &&
+            event.getNewStatus() != Order.OrderStatus.CANCELLED) {
+            salesRollup.recordOrder(event.getOrder());
+        } else if (event.getType() == DomainEvent.Type.ORDER_STATUS_CHANGED &&
+                   event.getNewStatus() == Order.OrderStatus.CANCELLED) {
+            salesRollup.recordCancellation(event.getOrder());
+        }
+    }
+    
+    /**
+     * Domain events for code that maintains its own views or sends
+     * notifications; see EventBus for the threading rules.
+     */
+    public EventBus getEventBus() {
+        return events;
+    }
+    
+    /**
+     * Operation latencies and checkout counters; off until enabled.
+     */
+    public StoreMetrics getMetrics() {
+        return metrics;
+    }
+    
+    public int getOrderCount() {
+        return orders.size();
+    }
+    
     public List<Product> getBestSellingProducts(int limit) {
-        Map<Product, Integer> salesCount = new HashMap<>();
-        
-        for (Order order : orders.values()) {
-            if (order.getStatus() != Order.OrderStatus.CANCELLED) {
-                for (Map.Entry<Product, Integer> entry : order.getItems().entrySet()) {
-                    Product product = entry.getKey();
-                    int quantity = entry.getValue();
-                    salesCount.put(product, 
-                        salesCount.getOrDefault(product, 0) + quantity);
-                }
-            }
+        long start = metrics.start();
+        List<Product> top = bestSellers.top(limit);
+        metrics.record(StoreMetrics.Operation.BEST_SELLERS, start);
+        return top;
+    }
+    
+    // Result class
+    public static class OrderRequest {
+        private String customerId;
+        private Map<String, Integer> items; // Product ID -> Quantity
+        private String paymentMethod;
+        
+        public OrderRequest(String customerId, Map<String, Integer> items, String paymentMethod) {
+            this.customerId = customerId;
+            this.items = items;
+            this.paymentMethod = paymentMethod;
         }
         
-        return salesCount.entrySet().stream()
-                        .sorted((e1, e2) -> Integer.compare(e2.getValue(), e1.getValue()))
-                        .limit(limit)
-                        .map(Map.Entry::getKey)
-                        .collect(Collectors.toList());
+        public String getCustomerId() { return customerId; }
+        public Map<String, Integer> getItems() { return items; }
+        public String getPaymentMethod() { return paymentMethod; }
     }
     
-    // Result class
     public static class OrderResult {
         private boolean success;
         private String message;
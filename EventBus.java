@@ -0,0 +1,246 @@
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * EventBus - In-process ring buffer for domain events
+ * Publishers claim a sequence number, fill the preallocated slot for it and
+ * mark it published, so publishing allocates nothing. Synchronous handlers
+ * run on the publisher's thread before publish returns. Each asynchronous
+ * subscriber has its own thread and sequence; it drains every published
+ * event it hasn't seen as one batch. When the slowest subscriber is a whole
+ * ring behind, publishers wait for it (backpressure) rather than overwrite
+ * events it hasn't read.
+ */
+public class EventBus {
+    
+    public interface Handler {
+        /**
+         * Called once per event, in sequence order. endOfBatch is true on
+         * the last event currently available, a good point to flush work.
+         * Handlers must not publish, or a full ring could wait on itself.
+         */
+        void onEvent(DomainEvent event, long sequence, boolean endOfBatch);
+    }
+    
+    private final DomainEvent[] ring;
+    private final AtomicLongArray published; // slot -> sequence last published there
+    private final int mask;
+    private final AtomicLong claimed;
+    private final List<Handler> syncHandlers;
+    private final List<Subscription> subscriptions;
+    
+    public EventBus(int minimumCapacity) {
+        int size = Integer.highestOneBit(Math.max(2, minimumCapacity) - 1) << 1;
+        this.ring = new DomainEvent[size];
+        this.published = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            ring[i] = new DomainEvent();
+            published.set(i, -1);
+        }
+        this.mask = size - 1;
+        this.claimed = new AtomicLong(-1);
+        this.syncHandlers = new CopyOnWriteArrayList<>();
+        this.subscriptions = new CopyOnWriteArrayList<>();
+    }
+    
+    // Subscribing
+    /**
+     * Runs the handler on each publisher's thread. It must be fast and
+     * thread-safe, since publishers don't serialize with each other.
+     */
+    public void subscribeSync(Handler handler) {
+        syncHandlers.add(handler);
+    }
+    
+    /**
+     * Starts a consumer thread that sees every event published from now on.
+     */
+    public Subscription subscribe(String name, Handler handler) {
+        Subscription subscription = new Subscription(name, handler, claimed.get());
+        subscriptions.add(subscription);
+        subscription.thread.start();
+        return subscription;
+    }
+    
+    // Publishing
+    /**
+     * The event's new status is the order's status as published, which
+     * matters for orders restored already past PENDING.
+     */
+    public void publishOrderPlaced(Order order) {
+        publish(DomainEvent.Type.ORDER_PLACED, order, null, null,
+                null, order.getStatus(), 0, 0);
+    }
+    
+    public void publishStatusChanged(Order order, Order.OrderStatus oldStatus,
+                                     Order.OrderStatus newStatus) {
+        publish(DomainEvent.Type.ORDER_STATUS_CHANGED, order, null, null,
+                oldStatus, newStatus, 0, 0);
+    }
+    
+    public void publishStockChanged(Product product, int oldQuantity, int newQuantity) {
+        publish(DomainEvent.Type.STOCK_CHANGED, null, product, null,
+                null, null, oldQuantity, newQuantity);
+    }
+    
+    public void publishReviewAdded(Product product, Review review) {
+        publish(DomainEvent.Type.REVIEW_ADDED, null, product, review, null, null, 0, 0);
+    }
+    
+    private void publish(DomainEvent.Type type, Order order, Product product, Review review,
+                         Order.OrderStatus oldStatus, Order.OrderStatus newStatus,
+                         int oldQuantity, int newQuantity) {
+        if (syncHandlers.isEmpty() && subscriptions.isEmpty()) {
+            return;
+        }
+        
+        long sequence = claim();
+        int slot = (int) sequence & mask;
+        DomainEvent event = ring[slot];
+        event.set(type, order, product, review, oldStatus, newStatus, oldQuantity, newQuantity);
+        for (Handler handler : syncHandlers) {
+            deliver(handler, event, sequence, true);
+        }
+        published.set(slot, sequence);
+    }
+    
+    /**
+     * Claims the next sequence, waiting while that would lap a subscriber.
+     */
+    private long claim() {
+        while (true) {
+            long current = claimed.get();
+            long next = current + 1;
+            if (next - ring.length > slowestSubscriber()) {
+                LockSupport.parkNanos(1_000);
+                continue;
+            }
+            if (claimed.compareAndSet(current, next)) {
+                return next;
+            }
+        }
+    }
+    
+    private long slowestSubscriber() {
+        long slowest = Long.MAX_VALUE;
+        for (Subscription subscription : subscriptions) {
+            if (subscription.running) {
+                slowest = Math.min(slowest, subscription.processed.get());
+            }
+        }
+        return slowest;
+    }
+    
+    private static void deliver(Handler handler, DomainEvent event, long sequence,
+                                boolean endOfBatch) {
+        try {
+            handler.onEvent(event, sequence, endOfBatch);
+        } catch (RuntimeException e) {
+            System.err.println("Event handler failed on " + event + ": " + e);
+        }
+    }
+    
+    public long getPublishedSequence() {
+        return claimed.get();
+    }
+    
+    public int getCapacity() {
+        return ring.length;
+    }
+    
+    public void close() {
+        for (Subscription subscription : subscriptions) {
+            subscription.close();
+        }
+    }
+    
+    /**
+     * An asynchronous subscriber with its own thread.
+     */
+    public class Subscription {
+        private final String name;
+        private final Handler handler;
+        private final AtomicLong processed;
+        private final Thread thread;
+        private volatile boolean running;
+        
+        private Subscription(String name, Handler handler, long start) {
+            this.name = name;
+            this.handler = handler;
+            this.processed = new AtomicLong(start);
+            this.running = true;
+            this.thread = new Thread(this::run, "event-" + name);
+            this.thread.setDaemon(true);
+        }
+        
+        private void run() {
+            int idle = 0;
+            while (running) {
+                long next = processed.get() + 1;
+                long available = highestPublished(next);
+                if (available < next) {
+                    idle = backOff(idle);
+                    continue;
+                }
+                idle = 0;
+                
+                for (long sequence = next; sequence <= available; sequence++) {
+                    deliver(handler, ring[(int) sequence & mask], sequence, sequence == available);
+                }
+                processed.set(available);
+            }
+        }
+        
+        /**
+         * Last sequence from next onward that is published with no gaps; a
+         * publisher may still be filling an earlier slot.
+         */
+        private long highestPublished(long next) {
+            long limit = claimed.get();
+            long sequence = next;
+            while (sequence <= limit && published.get((int) sequence & mask) == sequence) {
+                sequence++;
+            }
+            return sequence - 1;
+        }
+        
+        private int backOff(int idle) {
+            if (idle < 100) {
+                Thread.onSpinWait();
+            } else if (idle < 200) {
+                Thread.yield();
+            } else {
+                LockSupport.parkNanos(Math.min(1_000_000L, 1_000L << Math.min(10, idle - 200)));
+            }
+            return idle + 1;
+        }
+        
+        /**
+         * Waits until this subscriber has handled everything published
+         * before the call, so readers of its view see their own writes.
+         */
+        public void awaitCaughtUp() {
+            long target = claimed.get();
+            while (running && processed.get() < target) {
+                LockSupport.parkNanos(10_000);
+            }
+        }
+        
+        public long getProcessedSequence() {
+            return processed.get();
+        }
+        
+        public String getName() {
+            return name;
+        }
+        
+        public void close() {
+            awaitCaughtUp();
+            running = false;
+            subscriptions.remove(this);
+        }
+    }
+}
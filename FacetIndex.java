@@ -0,0 +1,329 @@
+import java.util.*;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * FacetIndex - Facet bitmaps over the catalog for filtered search
+ * Every facet value (a category, a price band, a rating band, in stock)
+ * has an OrdinalBitmap of the products in it, keyed by product ordinal.
+ * A query intersects the bitmaps of its filters with the text matches;
+ * the count for each facet value is one intersection cardinality against
+ * the other filters, so counts never require walking the matching products.
+ *
+ * Counts are disjunctive: a facet's counts ignore that facet's own filter,
+ * so picking one category still shows how many matches the others have.
+ *
+ * Product getters are only called under the product's own lock, before
+ * this index's lock is taken, so the two locks are always taken in the
+ * same order.
+ */
+public class FacetIndex {
+    
+    // Lower bounds of the price bands; the last band is open-ended
+    private static final double[] PRICE_BANDS = { 0, 25, 50, 100, 250, 500, 1000 };
+    // 0 = unrated, else floor of the average; band 5 holds only perfect 5.0 averages
+    private static final int RATING_BANDS = 6;
+    
+    private static final int CHUNK_SHIFT = 12;
+    private static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+    
+    // Packed per-product state: present, in stock, price band, rating band
+    private static final int PRESENT = 1;
+    private static final int IN_STOCK = 2;
+    
+    /**
+     * Filters for a query; unset filters match everything.
+     */
+    public static class Query {
+        private String category;
+        private int priceBand = -1;
+        private int minRating;
+        private boolean inStockOnly;
+        private int limit = 20;
+        
+        public Query category(String category) { this.category = category; return this; }
+        public Query priceBand(int band) { this.priceBand = band; return this; }
+        public Query minRating(int stars) { this.minRating = stars; return this; }
+        public Query inStockOnly(boolean inStockOnly) { this.inStockOnly = inStockOnly; return this; }
+        public Query limit(int limit) { this.limit = limit; return this; }
+        
+        public String getCategory() { return category; }
+        public int getPriceBand() { return priceBand; }
+        public int getMinRating() { return minRating; }
+        public boolean isInStockOnly() { return inStockOnly; }
+        public int getLimit() { return limit; }
+    }
+    
+    /**
+     * The first matches in ordinal order (registration order, except that
+     * ordinals freed by replaced products are reused), the total number of
+     * matches, and the facet result.
+     */
+    public static class Result {
+        final List<Product> products = new ArrayList<>();
+        int total;
+        final Map<String, Integer> byCategory = new TreeMap<>();
+        final Map<String, Integer> byPriceBand = new LinkedHashMap<>();
+        final Map<String, Integer> byMinRating = new LinkedHashMap<>(); // "5+" .. "1+", cumulative
+        int inStock;
+        
+        public List<Product> getProducts() { return products; }
+        public int getTotal() { return total; }
+        public Map<String, Integer> getByCategory() { return byCategory; }
+        public Map<String, Integer> getByPriceBand() { return byPriceBand; }
+        public Map<String, Integer> getByMinRating() { return byMinRating; }
+        public int getInStock() { return inStock; }
+    }
+    
+    private final ReadWriteLock lock;
+    private final OrdinalBitmap all;
+    private final OrdinalBitmap inStock;
+    private final Map<String, OrdinalBitmap> byCategory; // lowercase category -> products
+    private final Map<String, String> categoryNames;     // lowercase -> display name
+    private final OrdinalBitmap[] byPriceBand;
+    private final OrdinalBitmap[] byRatingBand;
+    private Product[] products;                          // ordinal -> product
+    private volatile AtomicIntegerArray[] states;        // ordinal -> packed state, chunked
+    
+    public FacetIndex() {
+        this.lock = new ReentrantReadWriteLock();
+        this.all = new OrdinalBitmap();
+        this.inStock = new OrdinalBitmap();
+        this.byCategory = new HashMap<>();
+        this.categoryNames = new HashMap<>();
+        this.byPriceBand = new OrdinalBitmap[PRICE_BANDS.length];
+        for (int i = 0; i < byPriceBand.length; i++) {
+            byPriceBand[i] = new OrdinalBitmap();
+        }
+        this.byRatingBand = new OrdinalBitmap[RATING_BANDS];
+        for (int i = 0; i < byRatingBand.length; i++) {
+            byRatingBand[i] = new OrdinalBitmap();
+        }
+        this.products = new Product[CHUNK_SIZE];
+        this.states = new AtomicIntegerArray[0];
+    }
+    
+    public static String priceBandLabel(int band) {
+        double low = PRICE_BANDS[band];
+        return band + 1 < PRICE_BANDS.length ?
+            String.format("%.0f-%.0f", low, PRICE_BANDS[band + 1]) : String.format("%.0f+", low);
+    }
+    
+    public static int priceBandCount() {
+        return PRICE_BANDS.length;
+    }
+    
+    private static int priceBand(double price) {
+        int band = 0;
+        while (band + 1 < PRICE_BANDS.length && price >= PRICE_BANDS[band + 1]) {
+            band++;
+        }
+        return band;
+    }
+    
+    private static int state(Product product) {
+        int rating = product.getTotalReviews() == 0 ? 0 :
+                     Math.max(1, Math.min(RATING_BANDS - 1, (int) product.getAverageRating()));
+        return PRESENT | (product.isInStock() ? IN_STOCK : 0) |
+               priceBand(product.getPrice()) << 2 | rating << 6;
+    }
+    
+    private int currentState(int ordinal) {
+        AtomicIntegerArray[] chunks = states;
+        int chunk = ordinal >>> CHUNK_SHIFT;
+        return chunk < chunks.length ? chunks[chunk].get(ordinal & (CHUNK_SIZE - 1)) : 0;
+    }
+    
+    // Maintenance
+    public void addProduct(Product product) {
+        int state;
+        synchronized (product) {
+            state = state(product);
+        }
+        String category = product.getCategory();
+        
+        lock.writeLock().lock();
+        try {
+            int ordinal = product.getOrdinal();
+            if (ordinal >= products.length) {
+                products = Arrays.copyOf(products, Math.max(ordinal + 1, products.length * 2));
+            }
+            Product previous = products[ordinal];
+            if (previous != null && previous != product) {
+                removeLocked(previous);
+            }
+            products[ordinal] = product;
+            all.add(ordinal);
+            String key = category.toLowerCase(Locale.ROOT);
+            byCategory.computeIfAbsent(key, k -> new OrdinalBitmap()).add(ordinal);
+            categoryNames.putIfAbsent(key, category);
+            applyState(ordinal, currentState(ordinal), state);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+    
+    public void removeProduct(Product product) {
+        lock.writeLock().lock();
+        try {
+            if (products.length > product.getOrdinal() && products[product.getOrdinal()] == product) {
+                removeLocked(product);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+    
+    private void removeLocked(Product product) {
+        int ordinal = product.getOrdinal();
+        products[ordinal] = null;
+        all.remove(ordinal);
+        OrdinalBitmap category = byCategory.get(product.getCategory().toLowerCase(Locale.ROOT));
+        if (category != null) {
+            category.remove(ordinal);
+        }
+        applyState(ordinal, currentState(ordinal), 0);
+    }
+    
+    /**
+     * Moves the product between bands after its stock, price or rating
+     * changed. Holds the product's lock throughout so concurrent updates
+     * apply in order; costs one array read when no band changed.
+     */
+    public void update(Product product) {
+        int ordinal = product.getOrdinal();
+        synchronized (product) {
+            int current = currentState(ordinal);
+            int state = state(product);
+            if (current == 0 || current == state) {
+                return;
+            }
+            
+            lock.writeLock().lock();
+            try {
+                if (products.length > ordinal && products[ordinal] == product) {
+                    applyState(ordinal, currentState(ordinal), state);
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+    }
+    
+    private void applyState(int ordinal, int oldState, int newState) {
+        if ((oldState & IN_STOCK) != (newState & IN_STOCK) || newState == 0) {
+            if ((newState & IN_STOCK) != 0) {
+                inStock.add(ordinal);
+            } else {
+                inStock.remove(ordinal);
+            }
+        }
+        if ((oldState & PRESENT) != 0) {
+            byPriceBand[(oldState >>> 2) & 0xF].remove(ordinal);
+            byRatingBand[(oldState >>> 6) & 0xF].remove(ordinal);
+        }
+        if ((newState & PRESENT) != 0) {
+            byPriceBand[(newState >>> 2) & 0xF].add(ordinal);
+            byRatingBand[(newState >>> 6) & 0xF].add(ordinal);
+        }
+        
+        int chunk = ordinal >>> CHUNK_SHIFT;
+        if (chunk >= states.length) {
+            AtomicIntegerArray[] grown = Arrays.copyOf(states, chunk + 1);
+            for (int i = states.length; i < grown.length; i++) {
+                grown[i] = new AtomicIntegerArray(CHUNK_SIZE);
+            }
+            states = grown;
+        }
+        states[chunk].set(ordinal & (CHUNK_SIZE - 1), newState);
+    }
+    
+    // Queries
+    /**
+     * Applies the filters to the candidates (null for the whole catalog)
+     * and counts every facet value against the other filters.
+     */
+    public Result query(Collection<Product> candidates, Query query) {
+        lock.readLock().lock();
+        try {
+            OrdinalBitmap base = all;
+            if (candidates != null) {
+                base = new OrdinalBitmap();
+                for (Product product : candidates) {
+                    int ordinal = product.getOrdinal();
+                    if (ordinal < products.length && products[ordinal] == product) {
+                        base.add(ordinal);
+                    }
+                }
+            }
+            
+            OrdinalBitmap categoryFilter = null;
+            if (query.category != null) {
+                categoryFilter = byCategory.getOrDefault(query.category.toLowerCase(Locale.ROOT),
+                                                         new OrdinalBitmap());
+            }
+            OrdinalBitmap priceFilter = query.priceBand >= 0 && query.priceBand < PRICE_BANDS.length ?
+                                        byPriceBand[query.priceBand] : null;
+            OrdinalBitmap ratingFilter = query.minRating > 0 ? ratingAtLeast(query.minRating) : null;
+            OrdinalBitmap stockFilter = query.inStockOnly ? inStock : null;
+            
+            Result result = new Result();
+            OrdinalBitmap matches = intersect(base, categoryFilter, priceFilter, ratingFilter, stockFilter);
+            result.total = matches.cardinality();
+            matches.forEach(ordinal -> {
+                if (result.products.size() < query.limit) {
+                    result.products.add(products[ordinal]);
+                }
+            });
+            
+            OrdinalBitmap withoutCategory = intersect(base, null, priceFilter, ratingFilter, stockFilter);
+            for (Map.Entry<String, OrdinalBitmap> entry : byCategory.entrySet()) {
+                int count = withoutCategory.andCardinality(entry.getValue());
+                if (count > 0) {
+                    result.byCategory.put(categoryNames.get(entry.getKey()), count);
+                }
+            }
+            
+            OrdinalBitmap withoutPrice = intersect(base, categoryFilter, null, ratingFilter, stockFilter);
+            for (int band = 0; band < PRICE_BANDS.length; band++) {
+                result.byPriceBand.put(priceBandLabel(band), withoutPrice.andCardinality(byPriceBand[band]));
+            }
+            
+            OrdinalBitmap withoutRating = intersect(base, categoryFilter, priceFilter, null, stockFilter);
+            int atLeast = 0;
+            int[] perBand = new int[RATING_BANDS];
+            for (int band = 1; band < RATING_BANDS; band++) {
+                perBand[band] = withoutRating.andCardinality(byRatingBand[band]);
+            }
+            for (int band = RATING_BANDS - 1; band >= 1; band--) {
+                atLeast += perBand[band];
+                result.byMinRating.put(band + "+", atLeast);
+            }
+            
+            result.inStock = intersect(base, categoryFilter, priceFilter, ratingFilter, null)
+                .andCardinality(inStock);
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+    
+    private OrdinalBitmap ratingAtLeast(int stars) {
+        OrdinalBitmap result = new OrdinalBitmap();
+        for (int band = Math.max(1, Math.min(RATING_BANDS - 1, stars)); band < RATING_BANDS; band++) {
+            result = result.or(byRatingBand[band]);
+        }
+        return result;
+    }
+    
+    private static OrdinalBitmap intersect(OrdinalBitmap base, OrdinalBitmap... filters) {
+        OrdinalBitmap result = base;
+        for (OrdinalBitmap filter : filters) {
+            if (filter != null) {
+                result = result.and(filter);
+            }
+        }
+        return result;
+    }
+}
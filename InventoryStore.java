@@ -0,0 +1,190 @@
+import java.util.*;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * InventoryStore - Columnar storage for stock, holds, price and low-stock threshold
+ * Each ECommerceSystem has its own store. A Product registered with it
+ * gets a dense ordinal and keeps its numbers in primitive columns here
+ * instead of in its own fields, so stock checks read one array slot and
+ * bulk scans are linear passes over contiguous arrays. Columns grow in
+ * fixed-size chunks, so existing slots never move.
+ *
+ * A replaced product gives its ordinal back, and the next registration
+ * reuses it, so the columns stay dense.
+ */
+public class InventoryStore {
+    
+    private static final int CHUNK_SHIFT = 12;
+    private static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+    
+    private static class Chunk {
+        final AtomicIntegerArray stock = new AtomicIntegerArray(CHUNK_SIZE);
+        final AtomicIntegerArray reserved = new AtomicIntegerArray(CHUNK_SIZE);
+        final AtomicIntegerArray lowStockThreshold = new AtomicIntegerArray(CHUNK_SIZE);
+        final AtomicLongArray priceBits = new AtomicLongArray(CHUNK_SIZE);
+        final AtomicReferenceArray<Product> owners = new AtomicReferenceArray<>(CHUNK_SIZE);
+    }
+    
+    private volatile Chunk[] chunks;
+    private int nextOrdinal;
+    private Deque<Integer> freeOrdinals;
+    private int size;
+    
+    public InventoryStore() {
+        this.chunks = new Chunk[0];
+        this.freeOrdinals = new ArrayDeque<>();
+    }
+    
+    /**
+     * Assigns the product an ordinal and initial values, reusing a released
+     * slot when there is one.
+     */
+    synchronized int register(Product product, int stock, int reserved, int lowStockThreshold,
+                              double price) {
+        int ordinal = freeOrdinals.isEmpty() ? nextOrdinal++ : freeOrdinals.pop();
+        if ((ordinal >>> CHUNK_SHIFT) >= chunks.length) {
+            Chunk[] grown = Arrays.copyOf(chunks, chunks.length + 1);
+            grown[chunks.length] = new Chunk();
+            chunks = grown;
+        }
+        
+        Chunk chunk = chunk(ordinal);
+        int index = ordinal & CHUNK_MASK;
+        chunk.stock.set(index, stock);
+        chunk.reserved.set(index, reserved);
+        chunk.lowStockThreshold.set(index, lowStockThreshold);
+        chunk.priceBits.set(index, Double.doubleToRawLongBits(price));
+        chunk.owners.set(index, product);
+        size++;
+        return ordinal;
+    }
+    
+    /**
+     * Frees the ordinal for reuse; its product no longer shows up in scans.
+     */
+    synchronized void release(int ordinal) {
+        Chunk chunk = chunk(ordinal);
+        int index = ordinal & CHUNK_MASK;
+        chunk.owners.set(index, null);
+        chunk.stock.set(index, 0);
+        chunk.reserved.set(index, 0);
+        freeOrdinals.push(ordinal);
+        size--;
+    }
+    
+    private Chunk chunk(int ordinal) {
+        return chunks[ordinal >>> CHUNK_SHIFT];
+    }
+    
+    // Per-product access
+    public int getStock(int ordinal) {
+        return chunk(ordinal).stock.get(ordinal & CHUNK_MASK);
+    }
+    
+    public void setStock(int ordinal, int stock) {
+        chunk(ordinal).stock.set(ordinal & CHUNK_MASK, stock);
+    }
+    
+    /**
+     * Quantity held by carts: still in stock, but not available to others.
+     */
+    public int getReserved(int ordinal) {
+        return chunk(ordinal).reserved.get(ordinal & CHUNK_MASK);
+    }
+    
+    public void setReserved(int ordinal, int reserved) {
+        chunk(ordinal).reserved.set(ordinal & CHUNK_MASK, reserved);
+    }
+    
+    public int getAvailable(int ordinal) {
+        Chunk chunk = chunk(ordinal);
+        int index = ordinal & CHUNK_MASK;
+        return chunk.stock.get(index) - chunk.reserved.get(index);
+    }
+    
+    public int getLowStockThreshold(int ordinal) {
+        return chunk(ordinal).lowStockThreshold.get(ordinal & CHUNK_MASK);
+    }
+    
+    public void setLowStockThreshold(int ordinal, int threshold) {
+        chunk(ordinal).lowStockThreshold.set(ordinal & CHUNK_MASK, threshold);
+    }
+    
+    public double getPrice(int ordinal) {
+        return Double.longBitsToDouble(chunk(ordinal).priceBits.get(ordinal & CHUNK_MASK));
+    }
+    
+    public void setPrice(int ordinal, double price) {
+        chunk(ordinal).priceBits.set(ordinal & CHUNK_MASK, Double.doubleToRawLongBits(price));
+    }
+    
+    public boolean isLowStock(int ordinal) {
+        Chunk chunk = chunk(ordinal);
+        int index = ordinal & CHUNK_MASK;
+        int stock = chunk.stock.get(index);
+        return stock > 0 && stock <= chunk.lowStockThreshold.get(index);
+    }
+    
+    // Bulk scans
+    public List<Product> scanLowStock() {
+        List<Product> result = new ArrayList<>();
+        Chunk[] snapshot = chunks;
+        for (Chunk chunk : snapshot) {
+            for (int i = 0; i < CHUNK_SIZE; i++) {
+                int stock = chunk.stock.get(i);
+                if (stock > 0 && stock <= chunk.lowStockThreshold.get(i)) {
+                    addOwner(result, chunk, i);
+                }
+            }
+        }
+        return result;
+    }
+    
+    public List<Product> scanOutOfStock() {
+        List<Product> result = new ArrayList<>();
+        Chunk[] snapshot = chunks;
+        for (Chunk chunk : snapshot) {
+            for (int i = 0; i < CHUNK_SIZE; i++) {
+                if (chunk.stock.get(i) <= 0) {
+                    addOwner(result, chunk, i);
+                }
+            }
+        }
+        return result;
+    }
+    
+    /**
+     * Sum of price times stock over every registered product.
+     */
+    public double getInventoryValue() {
+        double value = 0;
+        Chunk[] snapshot = chunks;
+        for (Chunk chunk : snapshot) {
+            for (int i = 0; i < CHUNK_SIZE; i++) {
+                int stock = chunk.stock.get(i);
+                if (stock > 0 && chunk.owners.get(i) != null) {
+                    value += stock * Double.longBitsToDouble(chunk.priceBits.get(i));
+                }
+            }
+        }
+        return value;
+    }
+    
+    private static void addOwner(List<Product> result, Chunk chunk, int index) {
+        Product product = chunk.owners.get(index);
+        if (product != null) {
+            result.add(product);
+        }
+    }
+    
+    public synchronized int size() {
+        return size;
+    }
+    
+    public synchronized int getCapacity() {
+        return chunks.length * CHUNK_SIZE;
+    }
+}
@@ -0,0 +1,89 @@
+import java.util.*;
+
+/**
+ * Leaderboard - Continuously maintained product ranking
+ * Entries are kept sorted as scores change, so reading the top N costs
+ * O(N) no matter how many products are ranked.
+ */
+public class Leaderboard {
+    
+    private static class Entry {
+        final Product product;
+        final double score;
+        final long tiebreak;
+        
+        Entry(Product product, double score, long tiebreak) {
+            this.product = product;
+            this.score = score;
+            this.tiebreak = tiebreak;
+        }
+    }
+    
+    // Highest score first, then highest tiebreak, then product ID
+    private static final Comparator<Entry> RANKING = (e1, e2) -> {
+        int scoreCompare = Double.compare(e2.score, e1.score);
+        if (scoreCompare != 0) return scoreCompare;
+        int tiebreakCompare = Long.compare(e2.tiebreak, e1.tiebreak);
+        if (tiebreakCompare != 0) return tiebreakCompare;
+        return e1.product.getProductId().compareTo(e2.product.getProductId());
+    };
+    
+    private Map<String, Entry> entries;
+    private TreeSet<Entry> ranking;
+    
+    public Leaderboard() {
+        this.entries = new HashMap<>();
+        this.ranking = new TreeSet<>(RANKING);
+    }
+    
+    public synchronized void update(Product product, double score, long tiebreak) {
+        Entry previous = entries.put(product.getProductId(),
+                                     new Entry(product, score, tiebreak));
+        if (previous != null) {
+            ranking.remove(previous);
+        }
+        ranking.add(entries.get(product.getProductId()));
+    }
+    
+    /**
+     * Adds delta to the product's score, dropping it from the board once the
+     * score falls to zero or below.
+     */
+    public synchronized void increment(Product product, double delta) {
+        Entry previous = entries.get(product.getProductId());
+        double score = (previous == null ? 0 : previous.score) + delta;
+        
+        if (score <= 0) {
+            remove(product);
+        } else {
+            update(product, score, 0);
+        }
+    }
+    
+    public synchronized void remove(Product product) {
+        Entry previous = entries.remove(product.getProductId());
+        if (previous != null) {
+            ranking.remove(previous);
+        }
+    }
+    
+    public synchronized List<Product> top(int limit) {
+        List<Product> result = new ArrayList<>(Math.min(limit, ranking.size()));
+        for (Entry entry : ranking) {
+            if (result.size() >= limit) {
+                break;
+            }
+            result.add(entry.product);
+        }
+        return result;
+    }
+    
+    public synchronized double getScore(Product product) {
+        Entry entry = entries.get(product.getProductId());
+        return entry == null ? 0 : entry.score;
+    }
+    
+    public synchronized int size() {
+        return entries.size();
+    }
+}
@@ -0,0 +1,144 @@
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.Predicate;
+
+/**
+ * ListingIndex - Items kept sorted by a numeric key for paged listing
+ * Entries are ordered by (sort value, ID) in a skip list, so a page is a
+ * walk from the cursor position that stops once it has enough matches,
+ * however large the index. The ID breaks ties, which makes the order total
+ * and stable: a cursor marks a position between two entries, and items
+ * added or moved elsewhere never shift or repeat the pages after it.
+ */
+public class ListingIndex<T> {
+    
+    private static final class Key implements Comparable<Key> {
+        final double value;
+        final String id;
+        
+        Key(double value, String id) {
+            this.value = value;
+            this.id = id;
+        }
+        
+        @Override
+        public int compareTo(Key other) {
+            int byValue = Double.compare(value, other.value);
+            return byValue != 0 ? byValue : id.compareTo(other.id);
+        }
+        
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Key && compareTo((Key) o) == 0;
+        }
+        
+        @Override
+        public int hashCode() {
+            return Double.hashCode(value) * 31 + id.hashCode();
+        }
+    }
+    
+    private final String name;
+    private final ConcurrentSkipListMap<Key, T> entries;
+    private final Map<String, Key> keys; // ID -> current position
+    
+    /**
+     * The name is stamped into cursors so one index rejects another's.
+     */
+    public ListingIndex(String name) {
+        this.name = name;
+        this.entries = new ConcurrentSkipListMap<>();
+        this.keys = new ConcurrentHashMap<>();
+    }
+    
+    /**
+     * Adds the item, or moves it if its sort value changed. Updates for
+     * the same ID are serialized, so the last one wins.
+     */
+    public void put(String id, double value, T item) {
+        Key key = new Key(value, id);
+        keys.compute(id, (k, old) -> {
+            if (old != null && !old.equals(key)) {
+                entries.remove(old);
+            }
+            entries.put(key, item);
+            return key;
+        });
+    }
+    
+    /**
+     * Moves an item already in the index when its sort value changed;
+     * costs one lookup when it hasn't.
+     */
+    public void update(String id, double value, T item) {
+        Key current = keys.get(id);
+        if (current != null && Double.compare(current.value, value) != 0) {
+            put(id, value, item);
+        }
+    }
+    
+    public void remove(String id) {
+        keys.computeIfPresent(id, (k, old) -> {
+            entries.remove(old);
+            return null;
+        });
+    }
+    
+    public int size() {
+        return keys.size();
+    }
+    
+    /**
+     * Up to limit matching items after the cursor (null for the first
+     * page), in ascending or descending order. A full page always carries
+     * a cursor, so the page after it can come back empty.
+     */
+    public Page<T> page(String cursor, int limit, boolean descending, Predicate<? super T> filter) {
+        if (limit <= 0) {
+            throw new IllegalArgumentException("limit must be positive");
+        }
+        NavigableMap<Key, T> view = descending ? entries.descendingMap() : entries;
+        if (cursor != null) {
+            view = view.tailMap(decode(cursor), false);
+        }
+        
+        List<T> items = new ArrayList<>(Math.min(limit, 64));
+        for (Map.Entry<Key, T> entry : view.entrySet()) {
+            if (filter == null || filter.test(entry.getValue())) {
+                items.add(entry.getValue());
+                if (items.size() == limit) {
+                    return new Page<>(items, encode(entry.getKey()));
+                }
+            }
+        }
+        return new Page<>(items, null);
+    }
+    
+    // Cursors
+    private String encode(Key key) {
+        String raw = name + "|" + Long.toHexString(Double.doubleToLongBits(key.value)) + "|" + key.id;
+        return Base64.getUrlEncoder().withoutPadding()
+                     .encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+    
+    private Key decode(String cursor) {
+        String raw;
+        try {
+            raw = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid cursor");
+        }
+        
+        String[] parts = raw.split("\\|", 3);
+        if (parts.length != 3 || !parts[0].equals(name)) {
+            throw new IllegalArgumentException("Cursor is not for " + name);
+        }
+        try {
+            return new Key(Double.longBitsToDouble(Long.parseUnsignedLong(parts[1], 16)), parts[2]);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid cursor");
+        }
+    }
+}
@@ -0,0 +1,226 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * MappedCatalogStore - Read-only product catalog backed by a memory-mapped file
+ * Lets very large catalogs live outside the heap. Records are fixed-size and
+ * sorted by product ID, so a lookup is a binary search over the mapping;
+ * each record points at its strings in a trailing string area. Opening
+ * only maps the file and reads the header; a Product is built only when
+ * someone asks for it.
+ *
+ * File layout:
+ *   header  [int magic][int version][long count][long string area offset][8 reserved]
+ *   records [long strings offset][int id, name, category, description, seller lengths]
+ *           [double price][int stock][int low-stock threshold][4 reserved]
+ *   strings UTF-8 bytes of each record's strings, back to back
+ */
+public class MappedCatalogStore implements Closeable {
+    
+    private static final int MAGIC = 0x45434d31; // "ECM1"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 32;
+    private static final int RECORD_SIZE = 48;
+    private static final int STRING_FIELDS = 5;
+    
+    // Files past 2GB are mapped in overlapping segments so a record never
+    // straddles two of them
+    private static final long SEGMENT_SIZE = 1L << 30;
+    private static final int SEGMENT_OVERLAP = RECORD_SIZE;
+    
+    private final Path path;
+    private final FileChannel channel;
+    private final MappedByteBuffer[] segments;
+    private final long count;
+    
+    private MappedCatalogStore(Path path) throws IOException {
+        this.path = path;
+        this.channel = FileChannel.open(path, StandardOpenOption.READ);
+        long size = channel.size();
+        
+        int segmentCount = (int) Math.max(1, (size + SEGMENT_SIZE - 1) / SEGMENT_SIZE);
+        this.segments = new MappedByteBuffer[segmentCount];
+        for (int i = 0; i < segmentCount; i++) {
+            long start = i * SEGMENT_SIZE;
+            long length = Math.min(size - start, SEGMENT_SIZE + SEGMENT_OVERLAP);
+            segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, length);
+        }
+        
+        if (size < HEADER_SIZE || getInt(0) != MAGIC || getInt(4) != VERSION) {
+            channel.close();
+            throw new IOException("Not a catalog file: " + path);
+        }
+        this.count = getLong(8);
+    }
+    
+    /**
+     * Maps an existing catalog file. Nothing is decoded until looked up.
+     */
+    public static MappedCatalogStore open(Path path) throws IOException {
+        return new MappedCatalogStore(path);
+    }
+    
+    /**
+     * Writes products to a new catalog file, replacing any existing one.
+     * Reviews are not part of the catalog.
+     */
+    public static void write(Path path, Collection<Product> products) throws IOException {
+        List<Product> sorted = new ArrayList<>(products);
+        sorted.sort((p1, p2) -> Arrays.compareUnsigned(utf8(p1.getProductId()),
+                                                       utf8(p2.getProductId())));
+        
+        long stringsStart = HEADER_SIZE + (long) sorted.size() * RECORD_SIZE;
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileOutputStream file = new FileOutputStream(temp.toFile());
+             DataOutputStream out = new DataOutputStream(
+                 new BufferedOutputStream(file, 256 * 1024))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(sorted.size());
+            out.writeLong(stringsStart);
+            out.writeLong(0);
+            
+            long stringOffset = stringsStart;
+            for (Product product : sorted) {
+                out.writeLong(stringOffset);
+                for (String field : stringFields(product)) {
+                    int length = utf8(field).length;
+                    out.writeInt(length);
+                    stringOffset += length;
+                }
+                out.writeDouble(product.getPrice());
+                out.writeInt(product.getStockQuantity());
+                out.writeInt(product.getLowStockThreshold());
+                out.writeInt(0);
+            }
+            
+            for (Product product : sorted) {
+                for (String field : stringFields(product)) {
+                    out.write(utf8(field));
+                }
+            }
+            out.flush();
+            file.getFD().sync();
+        }
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+    
+    private static String[] stringFields(Product product) {
+        return new String[] { product.getProductId(), product.getName(), product.getCategory(),
+                              product.getDescription(), product.getSellerId() };
+    }
+    
+    private static byte[] utf8(String value) {
+        return (value == null ? "" : value).getBytes(StandardCharsets.UTF_8);
+    }
+    
+    // Lookups
+    public boolean contains(String productId) {
+        return find(productId) >= 0;
+    }
+    
+    /**
+     * Builds a fresh Product from the record for productId, or returns null
+     * if the catalog doesn't have it. Callers keep the instance they use.
+     */
+    public Product getProduct(String productId) {
+        long index = find(productId);
+        return index < 0 ? null : read(index);
+    }
+    
+    /**
+     * Reads the stock level without building a Product.
+     */
+    public int getStockQuantity(String productId) {
+        long index = find(productId);
+        return index < 0 ? 0 : getInt(recordOffset(index) + 8 + 4 * STRING_FIELDS + 8);
+    }
+    
+    public long size() {
+        return count;
+    }
+    
+    public Path getPath() {
+        return path;
+    }
+    
+    private long find(String productId) {
+        byte[] key = utf8(productId);
+        long low = 0;
+        long high = count - 1;
+        while (low <= high) {
+            long mid = (low + high) >>> 1;
+            long record = recordOffset(mid);
+            int compare = Arrays.compareUnsigned(getBytes(getLong(record), getInt(record + 8)), key);
+            if (compare < 0) {
+                low = mid + 1;
+            } else if (compare > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+    
+    private Product read(long index) {
+        long record = recordOffset(index);
+        long offset = getLong(record);
+        String[] fields = new String[STRING_FIELDS];
+        for (int i = 0; i < STRING_FIELDS; i++) {
+            int length = getInt(record + 8 + 4 * i);
+            fields[i] = new String(getBytes(offset, length), StandardCharsets.UTF_8);
+            offset += length;
+        }
+        
+        long numbers = record + 8 + 4 * STRING_FIELDS;
+        Product product = new Product(fields[0], fields[1], fields[2], fields[3],
+                                      getDouble(numbers), getInt(numbers + 8), fields[4]);
+        product.setLowStockThreshold(getInt(numbers + 12));
+        return product;
+    }
+    
+    private static long recordOffset(long index) {
+        return HEADER_SIZE + index * RECORD_SIZE;
+    }
+    
+    // Absolute reads across segments
+    private MappedByteBuffer segment(long position) {
+        return segments[(int) (position / SEGMENT_SIZE)];
+    }
+    
+    private int getInt(long position) {
+        return segment(position).getInt((int) (position % SEGMENT_SIZE));
+    }
+    
+    private long getLong(long position) {
+        return segment(position).getLong((int) (position % SEGMENT_SIZE));
+    }
+    
+    private double getDouble(long position) {
+        return segment(position).getDouble((int) (position % SEGMENT_SIZE));
+    }
+    
+    private byte[] getBytes(long position, int length) {
+        byte[] bytes = new byte[length];
+        int copied = 0;
+        while (copied < length) {
+            MappedByteBuffer buffer = segment(position + copied);
+            int start = (int) ((position + copied) % SEGMENT_SIZE);
+            int chunk = (int) Math.min(length - copied, SEGMENT_SIZE - start);
+            ((ByteBuffer) buffer.duplicate().position(start)).get(bytes, copied, chunk);
+            copied += chunk;
+        }
+        return bytes;
+    }
+    
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
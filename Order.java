@@ -1,4 +1,6 @@
+import java.time.Instant;
 import java.time.LocalDateTime;
+import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
 import java.util.*;
 
@@ -16,47 +18,114 @@ public class Order {
         CANCELLED
     }
     
+    public interface StatusListener {
+        void onStatusChanged(Order order, OrderStatus oldStatus, OrderStatus newStatus);
+    }
+    
+    private static final DateTimeFormatter HISTORY_FORMAT =
+        DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+    private static final ZoneId ZONE = ZoneId.systemDefault();
+    
     private String orderId;
     private String customerId;
-    private Map<Product, Integer> items;
+    // Line items, frozen at creation: parallel arrays indexed by line
+    private Product[] lineProducts;
+    private int[] lineQuantities;
+    private double[] lineUnitPrices;
     private double totalAmount;
-    private OrderStatus status;
+    private volatile OrderStatus status;
     private LocalDateTime orderDate;
     private LocalDateTime deliveryDate;
+    private LocalDateTime lastStatusChange;
     private String shippingAddress;
     private String paymentMethod;
-    private List<String> statusHistory;
+    // Status history as parallel (status, epoch millis) arrays, formatted on read;
+    // the PENDING entry is the order's creation
+    private OrderStatus[] historyStatuses;
+    private long[] historyTimes;
+    private int historySize;
+    private StatusListener statusListener;
     
     public Order(String orderId, String customerId, Map<Product, Integer> items,
                  double totalAmount, String shippingAddress, String paymentMethod) {
         this.orderId = orderId;
         this.customerId = customerId;
-        this.items = new HashMap<>(items);
+        int lines = items.size();
+        this.lineProducts = new Product[lines];
+        this.lineQuantities = new int[lines];
+        this.lineUnitPrices = new double[lines];
+        int line = 0;
+        for (Map.Entry<Product, Integer> entry : items.entrySet()) {
+            lineProducts[line] = entry.getKey();
+            lineQuantities[line] = entry.getValue();
+            lineUnitPrices[line] = entry.getKey().getPrice();
+            line++;
+        }
         this.totalAmount = totalAmount;
         this.status = OrderStatus.PENDING;
         this.orderDate = LocalDateTime.now();
         this.shippingAddress = shippingAddress;
         this.paymentMethod = paymentMethod;
-        this.statusHistory = new ArrayList<>();
-        addStatusUpdate("Order created");
+        this.historyStatuses = new OrderStatus[4];
+        this.historyTimes = new long[4];
+        addStatusUpdate(OrderStatus.PENDING, orderDate);
+    }
+    
+    /**
+     * Rebuilds an order exactly as it was persisted, including its dates,
+     * captured prices and status history.
+     */
+    Order(String orderId, String customerId, Product[] lineProducts, int[] lineQuantities,
+          double[] lineUnitPrices, double totalAmount, OrderStatus status,
+          LocalDateTime orderDate, LocalDateTime deliveryDate, LocalDateTime lastStatusChange,
+          String shippingAddress, String paymentMethod,
+          OrderStatus[] historyStatuses, long[] historyTimes) {
+        this.orderId = orderId;
+        this.customerId = customerId;
+        this.lineProducts = lineProducts;
+        this.lineQuantities = lineQuantities;
+        this.lineUnitPrices = lineUnitPrices;
+        this.totalAmount = totalAmount;
+        this.status = status;
+        this.orderDate = orderDate;
+        this.deliveryDate = deliveryDate;
+        this.lastStatusChange = lastStatusChange;
+        this.shippingAddress = shippingAddress;
+        this.paymentMethod = paymentMethod;
+        this.historyStatuses = historyStatuses;
+        this.historyTimes = historyTimes;
+        this.historySize = historyStatuses.length;
     }
     
     public boolean updateStatus(OrderStatus newStatus) {
+        return updateStatus(newStatus, LocalDateTime.now());
+    }
+    
+    synchronized boolean updateStatus(OrderStatus newStatus, LocalDateTime at) {
         // Validate state transitions
         if (!isValidTransition(status, newStatus)) {
             return false;
         }
         
+        OrderStatus oldStatus = status;
         this.status = newStatus;
-        addStatusUpdate("Status changed to: " + newStatus);
+        addStatusUpdate(newStatus, at);
         
         if (newStatus == OrderStatus.DELIVERED) {
-            deliveryDate = LocalDateTime.now();
+            deliveryDate = at;
+        }
+        
+        if (statusListener != null) {
+            statusListener.onStatusChanged(this, oldStatus, newStatus);
         }
         
         return true;
     }
     
+    void setStatusListener(StatusListener listener) {
+        this.statusListener = listener;
+    }
+    
     private boolean isValidTransition(OrderStatus from, OrderStatus to) {
         // Define valid state transitions
         switch (from) {
@@ -76,10 +145,15 @@ public class Order {
         }
     }
     
-    private void addStatusUpdate(String update) {
-        String timestamp = LocalDateTime.now().format(
-            DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss"));
-        statusHistory.add(timestamp + " - " + update);
+    private void addStatusUpdate(OrderStatus update, LocalDateTime at) {
+        lastStatusChange = at;
+        if (historySize == historyStatuses.length) {
+            historyStatuses = Arrays.copyOf(historyStatuses, Math.max(4, historySize * 2));
+            historyTimes = Arrays.copyOf(historyTimes, historyStatuses.length);
+        }
+        historyStatuses[historySize] = update;
+        historyTimes[historySize] = at.atZone(ZONE).toInstant().toEpochMilli();
+        historySize++;
     }
     
     public boolean canCancel() {
@@ -88,7 +162,7 @@ public class Order {
                status == OrderStatus.PROCESSING;
     }
     
-    public boolean cancel() {
+    public synchronized boolean cancel() {
         if (canCancel()) {
             return updateStatus(OrderStatus.CANCELLED);
         }
@@ -96,21 +170,87 @@ public class Order {
     }
     
     public int getTotalItems() {
-        return items.values().stream().mapToInt(Integer::intValue).sum();
+        int total = 0;
+        for (int quantity : lineQuantities) {
+            total += quantity;
+        }
+        return total;
+    }
+    
+    public synchronized List<String> getStatusHistory() {
+        List<String> history = new ArrayList<>(historySize);
+        for (int i = 0; i < historySize; i++) {
+            String timestamp = LocalDateTime.ofInstant(Instant.ofEpochMilli(historyTimes[i]), ZONE)
+                .format(HISTORY_FORMAT);
+            history.add(timestamp + " - " + (historyStatuses[i] == OrderStatus.PENDING ?
+                        "Order created" : "Status changed to: " + historyStatuses[i]));
+        }
+        return Collections.unmodifiableList(history);
     }
     
-    public List<String> getStatusHistory() {
-        return new ArrayList<>(statusHistory);
+    // Raw status history for the codec
+    synchronized int getHistorySize() { return historySize; }
+    synchronized OrderStatus getHistoryStatus(int index) { return historyStatuses[index]; }
+    synchronized long getHistoryTime(int index) { return historyTimes[index]; }
+    
+    // Line item access without allocating
+    public int getLineCount() { return lineProducts.length; }
+    public Product getLineProduct(int line) { return lineProducts[line]; }
+    public int getLineQuantity(int line) { return lineQuantities[line]; }
+    public double getLineUnitPrice(int line) { return lineUnitPrices[line]; }
+    
+    public double getLineSubtotal(int line) {
+        return lineUnitPrices[line] * lineQuantities[line];
+    }
+    
+    /**
+     * Read-only Product -> quantity view over the line arrays; nothing is
+     * copied. Prefer the line accessors on hot paths.
+     */
+    public Map<Product, Integer> getItems() {
+        return new AbstractMap<Product, Integer>() {
+            @Override
+            public Set<Map.Entry<Product, Integer>> entrySet() {
+                return new AbstractSet<Map.Entry<Product, Integer>>() {
+                    @Override
+                    public Iterator<Map.Entry<Product, Integer>> iterator() {
+                        return new Iterator<Map.Entry<Product, Integer>>() {
+                            private int line = 0;
+                            
+                            @Override
+                            public boolean hasNext() {
+                                return line < lineProducts.length;
+                            }
+                            
+                            @Override
+                            public Map.Entry<Product, Integer> next() {
+                                if (!hasNext()) {
+                                    throw new NoSuchElementException();
+                                }
+                                int current = line++;
+                                return new AbstractMap.SimpleImmutableEntry<>(
+                                    lineProducts[current], lineQuantities[current]);
+                            }
+                        };
+                    }
+                    
+                    @Override
+                    public int size() {
+                        return lineProducts.length;
+                    }
+                };
+            }
+        };
     }
     
     // Getters
     public String getOrderId() { return orderId; }
     public String getCustomerId() { return customerId; }
-    public Map<Product, Integer> getItems() { return new HashMap<>(items); }
     public double getTotalAmount() { return totalAmount; }
     public OrderStatus getStatus() { return status; }
     public LocalDateTime getOrderDate() { return orderDate; }
     public LocalDateTime getDeliveryDate() { return deliveryDate; }
+    public LocalDateTime getLastStatusChange() { return lastStatusChange; }
     public String getShippingAddress() { return shippingAddress; }
     public String getPaymentMethod() { return paymentMethod; }
     
@@ -140,16 +280,12 @@ public class Order {
                                "Product", "Qty", "Price", "Subtotal"));
         sb.append("-".repeat(70)).append("\n");
         
-        for (Map.Entry<Product, Integer> entry : items.entrySet()) {
-            Product product = entry.getKey();
-            int quantity = entry.getValue();
-            double subtotal = product.getPrice() * quantity;
-            
+        for (int line = 0; line < lineProducts.length; line++) {
             sb.append(String.format("%-40s %8d $%9.2f $%11.2f\n",
-                                   truncate(product.getName(), 40),
-                                   quantity,
-                                   product.getPrice(),
-                                   subtotal));
+                                   truncate(lineProducts[line].getName(), 40),
+                                   lineQuantities[line],
+                                   lineUnitPrices[line],
+                                   getLineSubtotal(line)));
         }
         
         sb.append("-".repeat(70)).append("\n");
@@ -173,7 +309,7 @@ public class Order {
         
         sb.append("Status History:\n");
         sb.append("-".repeat(70)).append("\n");
-        for (String update : statusHistory) {
+        for (String update : getStatusHistory()) {
             sb.append("  ").append(update).append("\n");
         }
         sb.append("=".repeat(70)).append("\n");
@@ -0,0 +1,36 @@
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * OrderStatusIndex - Secondary index from order status to orders
+ * Updated on every status transition so status queries never scan all orders
+ */
+public class OrderStatusIndex {
+    
+    private Map<Order.OrderStatus, Set<Order>> byStatus;
+    
+    public OrderStatusIndex() {
+        this.byStatus = new EnumMap<>(Order.OrderStatus.class);
+        for (Order.OrderStatus status : Order.OrderStatus.values()) {
+            byStatus.put(status, ConcurrentHashMap.newKeySet());
+        }
+    }
+    
+    public void addOrder(Order order) {
+        byStatus.get(order.getStatus()).add(order);
+    }
+    
+    public void onStatusChanged(Order order, Order.OrderStatus oldStatus,
+                                Order.OrderStatus newStatus) {
+        byStatus.get(oldStatus).remove(order);
+        byStatus.get(newStatus).add(order);
+    }
+    
+    public List<Order> getOrders(Order.OrderStatus status) {
+        return new ArrayList<>(byStatus.get(status));
+    }
+    
+    public int count(Order.OrderStatus status) {
+        return byStatus.get(status).size();
+    }
+}
@@ -0,0 +1,394 @@
+import java.util.*;
+import java.util.function.IntConsumer;
+
+/**
+ * OrdinalBitmap - Compressed set of product ordinals, Roaring style
+ * Ordinals are split by their high 16 bits into containers. A container
+ * holding up to 4096 values is a sorted char array; a denser one is a
+ * 65536-bit bitmap. Intersections and unions work container by container,
+ * with bitmap pairs reduced to word-wide AND/OR and popcounts, so counting
+ * an intersection never builds it.
+ *
+ * Not thread-safe; FacetIndex guards its bitmaps with a read-write lock.
+ */
+public class OrdinalBitmap {
+    
+    private static final int ARRAY_LIMIT = 4096;
+    private static final int BITMAP_WORDS = 1024;
+    
+    private interface Container {
+        Container add(char low);
+        Container remove(char low);
+        boolean contains(char low);
+        int cardinality();
+        void forEach(int high, IntConsumer action);
+    }
+    
+    private static final class ArrayContainer implements Container {
+        char[] values;
+        int size;
+        
+        ArrayContainer(int capacity) {
+            this.values = new char[Math.max(4, capacity)];
+        }
+        
+        @Override
+        public Container add(char low) {
+            int index = Arrays.binarySearch(values, 0, size, low);
+            if (index >= 0) {
+                return this;
+            }
+            if (size == ARRAY_LIMIT) {
+                return toBitmap().add(low);
+            }
+            index = -index - 1;
+            if (size == values.length) {
+                values = Arrays.copyOf(values, Math.min(ARRAY_LIMIT, size * 2));
+            }
+            System.arraycopy(values, index, values, index + 1, size - index);
+            values[index] = low;
+            size++;
+            return this;
+        }
+        
+        @Override
+        public Container remove(char low) {
+            int index = Arrays.binarySearch(values, 0, size, low);
+            if (index >= 0) {
+                System.arraycopy(values, index + 1, values, index, size - index - 1);
+                size--;
+            }
+            return this;
+        }
+        
+        @Override
+        public boolean contains(char low) {
+            return Arrays.binarySearch(values, 0, size, low) >= 0;
+        }
+        
+        @Override
+        public int cardinality() {
+            return size;
+        }
+        
+        @Override
+        public void forEach(int high, IntConsumer action) {
+            for (int i = 0; i < size; i++) {
+                action.accept(high | values[i]);
+            }
+        }
+        
+        BitmapContainer toBitmap() {
+            BitmapContainer bitmap = new BitmapContainer();
+            for (int i = 0; i < size; i++) {
+                bitmap.add(values[i]);
+            }
+            return bitmap;
+        }
+    }
+    
+    private static final class BitmapContainer implements Container {
+        final long[] words = new long[BITMAP_WORDS];
+        int cardinality;
+        
+        @Override
+        public Container add(char low) {
+            long bit = 1L << low;
+            long word = words[low >>> 6];
+            if ((word & bit) == 0) {
+                words[low >>> 6] = word | bit;
+                cardinality++;
+            }
+            return this;
+        }
+        
+        @Override
+        public Container remove(char low) {
+            long bit = 1L << low;
+            long word = words[low >>> 6];
+            if ((word & bit) != 0) {
+                words[low >>> 6] = word & ~bit;
+                cardinality--;
+                if (cardinality <= ARRAY_LIMIT / 2) {
+                    return toArray();
+                }
+            }
+            return this;
+        }
+        
+        @Override
+        public boolean contains(char low) {
+            return (words[low >>> 6] & (1L << low)) != 0;
+        }
+        
+        @Override
+        public int cardinality() {
+            return cardinality;
+        }
+        
+        @Override
+        public void forEach(int high, IntConsumer action) {
+            for (int w = 0; w < BITMAP_WORDS; w++) {
+                long word = words[w];
+                while (word != 0) {
+                    action.accept(high | (w << 6) + Long.numberOfTrailingZeros(word));
+                    word &= word - 1;
+                }
+            }
+        }
+        
+        ArrayContainer toArray() {
+            ArrayContainer array = new ArrayContainer(cardinality);
+            forEach(0, value -> array.values[array.size++] = (char) value);
+            return array;
+        }
+    }
+    
+    // Containers sorted by key (the ordinals' high 16 bits)
+    private int[] keys;
+    private Container[] containers;
+    private int size;
+    
+    public OrdinalBitmap() {
+        this.keys = new int[4];
+        this.containers = new Container[4];
+    }
+    
+    private int find(int key) {
+        return Arrays.binarySearch(keys, 0, size, key);
+    }
+    
+    public void add(int ordinal) {
+        int key = ordinal >>> 16;
+        int index = find(key);
+        if (index >= 0) {
+            containers[index] = containers[index].add((char) ordinal);
+            return;
+        }
+        
+        index = -index - 1;
+        if (size == keys.length) {
+            keys = Arrays.copyOf(keys, size * 2);
+            containers = Arrays.copyOf(containers, size * 2);
+        }
+        System.arraycopy(keys, index, keys, index + 1, size - index);
+        System.arraycopy(containers, index, containers, index + 1, size - index);
+        keys[index] = key;
+        containers[index] = new ArrayContainer(4).add((char) ordinal);
+        size++;
+    }
+    
+    public void remove(int ordinal) {
+        int index = find(ordinal >>> 16);
+        if (index < 0) {
+            return;
+        }
+        Container container = containers[index].remove((char) ordinal);
+        if (container.cardinality() > 0) {
+            containers[index] = container;
+            return;
+        }
+        System.arraycopy(keys, index + 1, keys, index, size - index - 1);
+        System.arraycopy(containers, index + 1, containers, index, size - index - 1);
+        containers[--size] = null;
+    }
+    
+    public boolean contains(int ordinal) {
+        int index = find(ordinal >>> 16);
+        return index >= 0 && containers[index].contains((char) ordinal);
+    }
+    
+    public int cardinality() {
+        int total = 0;
+        for (int i = 0; i < size; i++) {
+            total += containers[i].cardinality();
+        }
+        return total;
+    }
+    
+    public boolean isEmpty() {
+        return size == 0;
+    }
+    
+    public void forEach(IntConsumer action) {
+        for (int i = 0; i < size; i++) {
+            containers[i].forEach(keys[i] << 16, action);
+        }
+    }
+    
+    // Set operations
+    public OrdinalBitmap and(OrdinalBitmap other) {
+        OrdinalBitmap result = new OrdinalBitmap();
+        int i = 0;
+        int j = 0;
+        while (i < size && j < other.size) {
+            if (keys[i] < other.keys[j]) {
+                i++;
+            } else if (keys[i] > other.keys[j]) {
+                j++;
+            } else {
+                Container container = and(containers[i], other.containers[j]);
+                if (container.cardinality() > 0) {
+                    result.append(keys[i], container);
+                }
+                i++;
+                j++;
+            }
+        }
+        return result;
+    }
+    
+    /**
+     * Size of the intersection, without building it.
+     */
+    public int andCardinality(OrdinalBitmap other) {
+        int total = 0;
+        int i = 0;
+        int j = 0;
+        while (i < size && j < other.size) {
+            if (keys[i] < other.keys[j]) {
+                i++;
+            } else if (keys[i] > other.keys[j]) {
+                j++;
+            } else {
+                total += andCardinality(containers[i], other.containers[j]);
+                i++;
+                j++;
+            }
+        }
+        return total;
+    }
+    
+    public OrdinalBitmap or(OrdinalBitmap other) {
+        OrdinalBitmap result = new OrdinalBitmap();
+        int i = 0;
+        int j = 0;
+        while (i < size || j < other.size) {
+            if (j == other.size || (i < size && keys[i] < other.keys[j])) {
+                result.append(keys[i], copy(containers[i]));
+                i++;
+            } else if (i == size || keys[i] > other.keys[j]) {
+                result.append(other.keys[j], copy(other.containers[j]));
+                j++;
+            } else {
+                result.append(keys[i], or(containers[i], other.containers[j]));
+                i++;
+                j++;
+            }
+        }
+        return result;
+    }
+    
+    private void append(int key, Container container) {
+        if (size == keys.length) {
+            keys = Arrays.copyOf(keys, size * 2);
+            containers = Arrays.copyOf(containers, size * 2);
+        }
+        keys[size] = key;
+        containers[size++] = container;
+    }
+    
+    private static Container and(Container a, Container b) {
+        if (a instanceof BitmapContainer && b instanceof BitmapContainer) {
+            BitmapContainer result = new BitmapContainer();
+            long[] x = ((BitmapContainer) a).words;
+            long[] y = ((BitmapContainer) b).words;
+            for (int w = 0; w < BITMAP_WORDS; w++) {
+                long word = x[w] & y[w];
+                result.words[w] = word;
+                result.cardinality += Long.bitCount(word);
+            }
+            return result.cardinality <= ARRAY_LIMIT ? result.toArray() : result;
+        }
+        
+        // Walk the smaller (array) side and probe the other
+        ArrayContainer array = (ArrayContainer) (a instanceof ArrayContainer ? a : b);
+        Container probe = array == a ? b : a;
+        ArrayContainer result = new ArrayContainer(array.size);
+        for (int i = 0; i < array.size; i++) {
+            if (probe.contains(array.values[i])) {
+                result.values[result.size++] = array.values[i];
+            }
+        }
+        return result;
+    }
+    
+    private static int andCardinality(Container a, Container b) {
+        if (a instanceof BitmapContainer && b instanceof BitmapContainer) {
+            long[] x = ((BitmapContainer) a).words;
+            long[] y = ((BitmapContainer) b).words;
+            int count = 0;
+            for (int w = 0; w < BITMAP_WORDS; w++) {
+                count += Long.bitCount(x[w] & y[w]);
+            }
+            return count;
+        }
+        
+        ArrayContainer array = (ArrayContainer) (a instanceof ArrayContainer ? a : b);
+        Container probe = array == a ? b : a;
+        int count = 0;
+        for (int i = 0; i < array.size; i++) {
+            if (probe.contains(array.values[i])) {
+                count++;
+            }
+        }
+        return count;
+    }
+    
+    private static Container or(Container a, Container b) {
+        if (a instanceof BitmapContainer || b instanceof BitmapContainer ||
+            a.cardinality() + b.cardinality() > ARRAY_LIMIT) {
+            BitmapContainer result = a instanceof BitmapContainer ?
+                (BitmapContainer) copy(a) : ((ArrayContainer) a).toBitmap();
+            if (b instanceof BitmapContainer) {
+                long[] y = ((BitmapContainer) b).words;
+                result.cardinality = 0;
+                for (int w = 0; w < BITMAP_WORDS; w++) {
+                    result.words[w] |= y[w];
+                    result.cardinality += Long.bitCount(result.words[w]);
+                }
+            } else {
+                ArrayContainer array = (ArrayContainer) b;
+                for (int i = 0; i < array.size; i++) {
+                    result.add(array.values[i]);
+                }
+            }
+            return result.cardinality <= ARRAY_LIMIT ? result.toArray() : result;
+        }
+        
+        // Merge two sorted arrays
+        ArrayContainer x = (ArrayContainer) a;
+        ArrayContainer y = (ArrayContainer) b;
+        ArrayContainer result = new ArrayContainer(x.size + y.size);
+        int i = 0;
+        int j = 0;
+        while (i < x.size || j < y.size) {
+            char next;
+            if (j == y.size || (i < x.size && x.values[i] < y.values[j])) {
+                next = x.values[i++];
+            } else if (i == x.size || x.values[i] > y.values[j]) {
+                next = y.values[j++];
+            } else {
+                next = x.values[i++];
+                j++;
+            }
+            result.values[result.size++] = next;
+        }
+        return result;
+    }
+    
+    private static Container copy(Container container) {
+        if (container instanceof BitmapContainer) {
+            BitmapContainer source = (BitmapContainer) container;
+            BitmapContainer copy = new BitmapContainer();
+            System.arraycopy(source.words, 0, copy.words, 0, BITMAP_WORDS);
+            copy.cardinality = source.cardinality;
+            return copy;
+        }
+        ArrayContainer source = (ArrayContainer) container;
+        ArrayContainer copy = new ArrayContainer(source.size);
+        System.arraycopy(source.values, 0, copy.values, 0, source.size);
+        copy.size = source.size;
+        return copy;
+    }
+}
@@ -0,0 +1,24 @@
+import java.util.*;
+
+/**
+ * Page - One page of a listing plus the cursor for the next
+ * The cursor is opaque; pass it back unchanged to continue. A null cursor
+ * means the listing is exhausted.
+ */
+public class Page<T> {
+    
+    private final List<T> items;
+    private final String nextCursor;
+    
+    public Page(List<T> items, String nextCursor) {
+        this.items = Collections.unmodifiableList(items);
+        this.nextCursor = nextCursor;
+    }
+    
+    public List<T> getItems() { return items; }
+    public String getNextCursor() { return nextCursor; }
+    
+    public boolean hasMore() {
+        return nextCursor != null;
+    }
+}
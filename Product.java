@@ -1,18 +1,39 @@
 import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * Product - Represents a product in the e-commerce system
+ * Once registered with a store, stock, holds, price and low-stock threshold
+ * live in its InventoryStore columns under this product's ordinal; until
+ * then, and again after it has been replaced, they live in fields here.
+ * Quantities held by carts stay in stock but are not available to anyone
+ * else.
+ *
+ * Writes and attach/detach all hold this product's lock. Unlocked reads on
+ * a product that is being replaced may see one stale value.
  */
 public class Product {
+    
+    public interface StockListener {
+        void onStockChanged(Product product, int oldQuantity, int newQuantity);
+    }
+    
     private String productId;
     private String name;
     private String category;
     private String description;
-    private double price;
-    private int stockQuantity;
     private String sellerId;
     private List<Review> reviews;
+    private long ratingSum;
+    private int[] ratingCounts; // index = stars (1-5)
+    private volatile InventoryStore inventory; // null while unregistered
+    private int ordinal = -1;
+    // Inventory numbers while unregistered
+    private int stock;
+    private int reserved;
     private int lowStockThreshold;
+    private double price;
+    private StockListener stockListener;
     
     public Product(String productId, String name, String category, 
                    String description, double price, int stockQuantity, String sellerId) {
@@ -20,56 +41,202 @@ public class Product {
         this.name = name;
         this.category = category;
         this.description = description;
-        this.price = price;
-        this.stockQuantity = stockQuantity;
         this.sellerId = sellerId;
-        this.reviews = new ArrayList<>();
+        this.reviews = new CopyOnWriteArrayList<>();
+        this.ratingCounts = new int[6];
+        this.stock = stockQuantity;
         this.lowStockThreshold = 10;
+        this.price = price;
+    }
+    
+    // Inventory store membership
+    /**
+     * Moves this product's numbers into the store's columns. A product
+     * belongs to at most one store at a time.
+     */
+    synchronized void attach(InventoryStore store) {
+        checkStore(store);
+        if (inventory == store) {
+            return;
+        }
+        ordinal = store.register(this, stock, reserved, lowStockThreshold, price);
+        inventory = store;
+    }
+    
+    /**
+     * Throws if the product is registered with a store other than this one.
+     */
+    void checkStore(InventoryStore store) {
+        InventoryStore current = inventory;
+        if (current != null && current != store) {
+            throw new IllegalStateException("Product " + productId + " is registered with another store");
+        }
+    }
+    
+    /**
+     * Copies the numbers back into fields and gives the ordinal back, for a
+     * product that was replaced but may still be referenced by carts or orders.
+     */
+    synchronized void detach() {
+        InventoryStore store = inventory;
+        if (store == null) {
+            return;
+        }
+        stock = store.getStock(ordinal);
+        reserved = store.getReserved(ordinal);
+        lowStockThreshold = store.getLowStockThreshold(ordinal);
+        price = store.getPrice(ordinal);
+        inventory = null;
+        store.release(ordinal);
+    }
+    
+    private int stock() {
+        InventoryStore store = inventory;
+        return store != null ? store.getStock(ordinal) : stock;
+    }
+    
+    private int reserved() {
+        InventoryStore store = inventory;
+        return store != null ? store.getReserved(ordinal) : reserved;
+    }
+    
+    private void setReserved(int quantity) {
+        InventoryStore store = inventory;
+        if (store != null) {
+            store.setReserved(ordinal, quantity);
+        } else {
+            reserved = quantity;
+        }
     }
     
     public boolean isInStock() {
-        return stockQuantity > 0;
+        return stock() > 0;
     }
     
     public boolean isAvailable(int quantity) {
-        return stockQuantity >= quantity;
+        return getAvailableQuantity() >= quantity;
+    }
+    
+    public int getAvailableQuantity() {
+        InventoryStore store = inventory;
+        return store != null ? store.getAvailable(ordinal) : stock - reserved;
+    }
+    
+    public int getReservedQuantity() {
+        return reserved();
     }
     
     public boolean isLowStock() {
-        return stockQuantity <= lowStockThreshold && stockQuantity > 0;
+        InventoryStore store = inventory;
+        if (store != null) {
+            return store.isLowStock(ordinal);
+        }
+        return stock > 0 && stock <= lowStockThreshold;
+    }
+    
+    public synchronized void reduceStock(int quantity) {
+        tryReduceStock(quantity);
+    }
+    
+    /**
+     * Atomically checks and decrements stock, returning false instead of
+     * overselling when another checkout got there first. Stock held by
+     * carts is off limits.
+     */
+    public synchronized boolean tryReduceStock(int quantity) {
+        return tryCommitReservation(0, quantity);
     }
     
-    public void reduceStock(int quantity) {
-        if (quantity <= stockQuantity) {
-            stockQuantity -= quantity;
+    /**
+     * Takes quantity out of stock, counting held of it as this caller's own
+     * cart hold, which is released in the same step.
+     */
+    public synchronized boolean tryCommitReservation(int held, int quantity) {
+        int stock = stock();
+        int reserved = reserved();
+        held = Math.min(held, reserved);
+        if (quantity > stock - reserved + held) {
+            return false;
         }
+        setReserved(reserved - held);
+        changeStock(stock - quantity);
+        return true;
     }
     
-    public void increaseStock(int quantity) {
-        stockQuantity += quantity;
+    /**
+     * Holds quantity for a cart if that much is available.
+     */
+    public synchronized boolean tryReserve(int quantity) {
+        if (quantity > getAvailableQuantity()) {
+            return false;
+        }
+        setReserved(reserved() + quantity);
+        return true;
     }
     
-    public void addReview(Review review) {
+    public synchronized void releaseReservation(int quantity) {
+        setReserved(Math.max(0, reserved() - quantity));
+    }
+    
+    public synchronized void increaseStock(int quantity) {
+        changeStock(stock() + quantity);
+    }
+    
+    private void changeStock(int newQuantity) {
+        int oldQuantity = stock();
+        InventoryStore store = inventory;
+        if (store != null) {
+            store.setStock(ordinal, newQuantity);
+        } else {
+            stock = newQuantity;
+        }
+        if (stockListener != null) {
+            stockListener.onStockChanged(this, oldQuantity, newQuantity);
+        }
+    }
+    
+    void setStockListener(StockListener listener) {
+        this.stockListener = listener;
+    }
+    
+    public synchronized void addReview(Review review) {
         reviews.add(review);
+        ratingSum += review.getRating();
+        ratingCounts[review.getRating()]++;
     }
     
-    public double getAverageRating() {
+    public synchronized double getAverageRating() {
         if (reviews.isEmpty()) {
             return 0.0;
         }
-        
-        double total = reviews.stream()
-                             .mapToDouble(Review::getRating)
-                             .sum();
-        return total / reviews.size();
+        return (double) ratingSum / reviews.size();
+    }
+    
+    /**
+     * Bayesian average that pulls products with few reviews toward
+     * priorMean, as if each had priorWeight extra reviews at that rating.
+     */
+    public synchronized double getWeightedRating(double priorMean, int priorWeight) {
+        int count = reviews.size();
+        if (count + priorWeight == 0) {
+            return 0.0;
+        }
+        return (priorMean * priorWeight + ratingSum) / (priorWeight + count);
     }
     
-    public int getTotalReviews() {
+    public synchronized int getTotalReviews() {
         return reviews.size();
     }
     
+    public synchronized int getRatingCount(int stars) {
+        if (stars < 1 || stars > 5) {
+            return 0;
+        }
+        return ratingCounts[stars];
+    }
+    
     public List<Review> getReviews() {
-        return new ArrayList<>(reviews);
+        return Collections.unmodifiableList(reviews);
     }
     
     // Getters and setters
@@ -77,14 +244,48 @@ public class Product {
     public String getName() { return name; }
     public String getCategory() { return category; }
     public String getDescription() { return description; }
-    public double getPrice() { return price; }
-    public int getStockQuantity() { return stockQuantity; }
     public String getSellerId() { return sellerId; }
-    public int getLowStockThreshold() { return lowStockThreshold; }
+    int getOrdinal() { return ordinal; }
+    
+    public double getPrice() {
+        InventoryStore store = inventory;
+        return store != null ? store.getPrice(ordinal) : price;
+    }
+    
+    public int getStockQuantity() {
+        return stock();
+    }
+    
+    public int getLowStockThreshold() {
+        InventoryStore store = inventory;
+        return store != null ? store.getLowStockThreshold(ordinal) : lowStockThreshold;
+    }
     
-    public void setPrice(double price) { this.price = price; }
-    public void setStockQuantity(int stockQuantity) { this.stockQuantity = stockQuantity; }
-    public void setLowStockThreshold(int threshold) { this.lowStockThreshold = threshold; }
+    
+    // Listeners re-derive state from the new price through the stock callback
+    public synchronized void setPrice(double price) {
+        InventoryStore store = inventory;
+        if (store != null) {
+            store.setPrice(ordinal, price);
+        } else {
+            this.price = price;
+        }
+        changeStock(stock());
+    }
+    
+    public synchronized void setStockQuantity(int stockQuantity) {
+        changeStock(stockQuantity);
+    }
+    
+    public synchronized void setLowStockThreshold(int threshold) {
+        InventoryStore store = inventory;
+        if (store != null) {
+            store.setLowStockThreshold(ordinal, threshold);
+        } else {
+            this.lowStockThreshold = threshold;
+        }
+        changeStock(stock());
+    }
     
     @Override
     public String toString() {
@@ -94,11 +295,11 @@ public class Product {
         return String.format("%s - %s%s\n" +
                            "  Price: $%.2f | Stock: %d | Rating: %.1f ⭐ (%d reviews)\n" +
                            "  Category: %s",
-                           productId, name, stockStatus, price, stockQuantity,
+                           productId, name, stockStatus, getPrice(), getStockQuantity(),
                            getAverageRating(), getTotalReviews(), category);
     }
     
-    public String getDetailedInfo() {
+    public synchronized String getDetailedInfo() {
         StringBuilder info = new StringBuilder();
         info.append(toString()).append("\n");
         info.append("  Description: ").append(description).append("\n");
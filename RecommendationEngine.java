@@ -0,0 +1,213 @@
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * RecommendationEngine - Item-to-item co-purchase model with a per-customer cache
+ * Every delivered order updates co-purchase counts between the new items and
+ * everything that customer already received. Serving walks only the
+ * neighbours of the customer's purchases and keeps a bounded top-K heap.
+ *
+ * Cached results are checked lazily: a delivery stamps each product whose
+ * co-purchase row or buyer count it changed, and a cached result is only
+ * served while none of the customer's purchases carries a newer stamp.
+ */
+public class RecommendationEngine {
+    
+    private static class CachedResult {
+        final long version;
+        final long stamp;
+        final int limit;
+        final List<Product> products;
+        
+        CachedResult(long version, long stamp, int limit, List<Product> products) {
+            this.version = version;
+            this.stamp = stamp;
+            this.limit = limit;
+            this.products = products;
+        }
+    }
+    
+    private Map<String, Map<String, AtomicInteger>> coPurchases; // productId -> (productId -> count)
+    private Map<String, AtomicInteger> buyerCounts;              // productId -> distinct buyers
+    private Map<String, Long> stamps;                            // productId -> delivery that last changed it
+    private AtomicLong clock;                                    // deliveries recorded
+    private Map<String, CachedResult> cache;
+    private Map<String, Long> versions;                          // customerId -> invalidation count
+    
+    public RecommendationEngine() {
+        this.coPurchases = new ConcurrentHashMap<>();
+        this.buyerCounts = new ConcurrentHashMap<>();
+        this.stamps = new ConcurrentHashMap<>();
+        this.clock = new AtomicLong();
+        this.cache = new ConcurrentHashMap<>();
+        this.versions = new ConcurrentHashMap<>();
+    }
+    
+    /**
+     * Folds a delivered order into the model, given what the customer had
+     * received before it. Only products new to the customer add buyer and
+     * co-purchase counts.
+     */
+    public synchronized void recordDelivery(Order order, Set<String> owned) {
+        List<String> newItems = new ArrayList<>();
+        for (int line = 0; line < order.getLineCount(); line++) {
+            String productId = order.getLineProduct(line).getProductId();
+            if (!owned.contains(productId)) {
+                newItems.add(productId);
+            }
+        }
+        
+        if (newItems.isEmpty()) {
+            return;
+        }
+        
+        for (String item : newItems) {
+            buyerCounts.computeIfAbsent(item, k -> new AtomicInteger()).incrementAndGet();
+            for (String other : owned) {
+                addCoPurchase(item, other);
+            }
+        }
+        
+        // Pairs within the order: each new item has now seen the ones before it
+        for (int i = 0; i < newItems.size(); i++) {
+            for (int j = i + 1; j < newItems.size(); j++) {
+                addCoPurchase(newItems.get(i), newItems.get(j));
+            }
+        }
+        
+        // Rows changed for every new and owned item; buyer counts changed for
+        // the new items, which shows in the rows of all their neighbours. The
+        // stamp is taken after the counts, so a result computed before them
+        // always carries an older one.
+        Long stamp = clock.incrementAndGet();
+        for (String item : owned) {
+            stamps.put(item, stamp);
+        }
+        for (String item : newItems) {
+            stamps.put(item, stamp);
+            for (String neighbour : coPurchases.getOrDefault(item, Collections.emptyMap()).keySet()) {
+                stamps.put(neighbour, stamp);
+            }
+        }
+    }
+    
+    private void addCoPurchase(String a, String b) {
+        if (a.equals(b)) {
+            return;
+        }
+        coPurchases.computeIfAbsent(a, k -> new ConcurrentHashMap<>())
+                   .computeIfAbsent(b, k -> new AtomicInteger()).incrementAndGet();
+        coPurchases.computeIfAbsent(b, k -> new ConcurrentHashMap<>())
+                   .computeIfAbsent(a, k -> new AtomicInteger()).incrementAndGet();
+    }
+    
+    /**
+     * Returns up to limit product IDs most similar to what the customer has
+     * received, scored by summed cosine similarity of co-purchase counts.
+     */
+    public List<String> getSimilarItems(Set<String> owned, int limit) {
+        Map<String, Double> scores = new HashMap<>();
+        
+        for (String item : owned) {
+            Map<String, AtomicInteger> neighbours = coPurchases.get(item);
+            if (neighbours == null) {
+                continue;
+            }
+            double itemBuyers = buyers(item);
+            for (Map.Entry<String, AtomicInteger> entry : neighbours.entrySet()) {
+                String other = entry.getKey();
+                if (!owned.contains(other)) {
+                    double similarity = entry.getValue().get() /
+                                        Math.sqrt(itemBuyers * buyers(other));
+                    scores.merge(other, similarity, Double::sum);
+                }
+            }
+        }
+        
+        return topK(scores, limit);
+    }
+    
+    private static List<String> topK(Map<String, Double> scores, int limit) {
+        Comparator<Map.Entry<String, Double>> byScore = (e1, e2) -> {
+            int scoreCompare = Double.compare(e1.getValue(), e2.getValue());
+            if (scoreCompare != 0) return scoreCompare;
+            return e2.getKey().compareTo(e1.getKey());
+        };
+        
+        // Min-heap holding the best limit entries seen so far
+        PriorityQueue<Map.Entry<String, Double>> heap = new PriorityQueue<>(byScore);
+        for (Map.Entry<String, Double> entry : scores.entrySet()) {
+            heap.offer(entry);
+            if (heap.size() > limit) {
+                heap.poll();
+            }
+        }
+        
+        List<String> result = new ArrayList<>(heap.size());
+        while (!heap.isEmpty()) {
+            result.add(heap.poll().getKey());
+        }
+        Collections.reverse(result);
+        return result;
+    }
+    
+    private double buyers(String productId) {
+        AtomicInteger count = buyerCounts.get(productId);
+        return count == null ? 1 : Math.max(1, count.get());
+    }
+    
+    // Per-customer result cache
+    /**
+     * The cached result for the customer, unless the customer was
+     * invalidated or a delivery has since changed the model for anything
+     * they own.
+     */
+    public List<Product> getCached(String customerId, int limit, Set<String> owned) {
+        CachedResult cached = cache.get(customerId);
+        if (cached == null || cached.limit != limit || cached.version != getVersion(customerId)) {
+            return null;
+        }
+        for (String item : owned) {
+            if (stamps.getOrDefault(item, 0L) > cached.stamp) {
+                cache.remove(customerId, cached);
+                return null;
+            }
+        }
+        
+        // Stock moves faster than the model; recompute if anything sold out
+        for (Product product : cached.products) {
+            if (!product.isInStock()) {
+                return null;
+            }
+        }
+        return cached.products;
+    }
+    
+    /**
+     * Caches a result computed against the customer's version and the
+     * model's stamp as read before computing it; a result computed while
+     * either moved is dropped on its next read.
+     */
+    public void cache(String customerId, int limit, List<Product> products, long version, long stamp) {
+        cache.put(customerId, new CachedResult(version, stamp, limit,
+                                               Collections.unmodifiableList(products)));
+    }
+    
+    public long getVersion(String customerId) {
+        return versions.getOrDefault(customerId, 0L);
+    }
+    
+    /**
+     * The latest delivery folded into the model, to pass to cache.
+     */
+    public long getStamp() {
+        return clock.get();
+    }
+    
+    public void invalidate(String customerId) {
+        versions.merge(customerId, 1L, Long::sum);
+        cache.remove(customerId);
+    }
+}
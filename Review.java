@@ -22,6 +22,12 @@ public class Review {
         this.verified = verified;
     }
     
+    Review(String customerId, String customerName, int rating,
+           String comment, boolean verified, LocalDateTime reviewDate) {
+        this(customerId, customerName, rating, comment, verified);
+        this.reviewDate = reviewDate;
+    }
+    
     public String getCustomerId() { return customerId; }
     public String getCustomerName() { return customerName; }
     public int getRating() { return rating; }
@@ -0,0 +1,60 @@
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * SalesAnalytics - Running revenue and per-category unit counters
+ * Updated as orders are placed and cancelled so reports never walk the
+ * order history. Revenue is kept in cents to avoid drift from repeated
+ * add/subtract of doubles.
+ */
+public class SalesAnalytics {
+    
+    private LongAdder revenueCents;
+    private LongAdder activeOrders;
+    private Map<String, LongAdder> categoryUnits;
+    
+    public SalesAnalytics() {
+        this.revenueCents = new LongAdder();
+        this.activeOrders = new LongAdder();
+        this.categoryUnits = new ConcurrentHashMap<>();
+    }
+    
+    public void recordOrder(Order order) {
+        apply(order, 1);
+    }
+    
+    public void recordCancellation(Order order) {
+        apply(order, -1);
+    }
+    
+    private void apply(Order order, int sign) {
+        revenueCents.add(sign * Math.round(order.getTotalAmount() * 100));
+        activeOrders.add(sign);
+        
+        for (int line = 0; line < order.getLineCount(); line++) {
+            categoryUnits.computeIfAbsent(order.getLineProduct(line).getCategory(),
+                                          k -> new LongAdder())
+                         .add(sign * order.getLineQuantity(line));
+        }
+    }
+    
+    public double getTotalRevenue() {
+        return revenueCents.sum() / 100.0;
+    }
+    
+    public long getActiveOrderCount() {
+        return activeOrders.sum();
+    }
+    
+    public Map<String, Integer> getCategorySales() {
+        Map<String, Integer> sales = new HashMap<>();
+        for (Map.Entry<String, LongAdder> entry : categoryUnits.entrySet()) {
+            long units = entry.getValue().sum();
+            if (units > 0) {
+                sales.put(entry.getKey(), (int) units);
+            }
+        }
+        return sales;
+    }
+}
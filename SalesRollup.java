@@ -0,0 +1,234 @@
+import java.time.Duration;
+import java.time.ZoneId;
+import java.util.*;
+
+/**
+ * SalesRollup - Time-bucketed sales aggregates for windowed reports
+ * Orders are rolled into per-minute buckets keyed by order date. As buckets
+ * age they are compacted into hourly and then daily buckets, and daily
+ * buckets past retention are dropped, so memory stays bounded. Windowed
+ * queries sum the buckets whose start falls inside the window, which makes
+ * them exact to the granularity of the oldest bucket they touch.
+ */
+public class SalesRollup {
+    
+    private static final long MINUTES_PER_HOUR = 60;
+    private static final long MINUTES_PER_DAY = 24 * 60;
+    
+    // How long each granularity is kept before compacting to the next
+    private static final long MINUTE_RETENTION = 2 * MINUTES_PER_HOUR;
+    private static final long HOUR_RETENTION = 2 * MINUTES_PER_DAY;
+    private static final long DAY_RETENTION = 365 * MINUTES_PER_DAY;
+    
+    public static class Totals {
+        private int orders;
+        private long units;
+        private long revenueCents;
+        
+        void add(int orders, long units, long revenueCents) {
+            this.orders += orders;
+            this.units += units;
+            this.revenueCents += revenueCents;
+        }
+        
+        void add(Totals other) {
+            add(other.orders, other.units, other.revenueCents);
+        }
+        
+        public int getOrders() { return orders; }
+        public long getUnits() { return units; }
+        public double getRevenue() { return revenueCents / 100.0; }
+        
+        @Override
+        public String toString() {
+            return String.format("%d orders, %d units, $%.2f", orders, units, getRevenue());
+        }
+    }
+    
+    private static class Bucket {
+        final Totals totals = new Totals();
+        final Map<String, Totals> byCategory = new HashMap<>();
+        final Map<String, Totals> byProduct = new HashMap<>();
+        
+        void merge(Bucket other) {
+            totals.add(other.totals);
+            mergeInto(byCategory, other.byCategory);
+            mergeInto(byProduct, other.byProduct);
+        }
+        
+        private static void mergeInto(Map<String, Totals> target, Map<String, Totals> source) {
+            for (Map.Entry<String, Totals> entry : source.entrySet()) {
+                target.computeIfAbsent(entry.getKey(), k -> new Totals()).add(entry.getValue());
+            }
+        }
+    }
+    
+    // Bucket start (epoch minute) -> bucket; each map covers a disjoint time range
+    private TreeMap<Long, Bucket> minuteBuckets;
+    private TreeMap<Long, Bucket> hourBuckets;
+    private TreeMap<Long, Bucket> dayBuckets;
+    
+    // Buckets starting before these minutes have moved to the next granularity
+    private long minuteFrontier;
+    private long hourFrontier;
+    private long dayFrontier;
+    
+    private ZoneId zone;
+    
+    public SalesRollup() {
+        this.minuteBuckets = new TreeMap<>();
+        this.hourBuckets = new TreeMap<>();
+        this.dayBuckets = new TreeMap<>();
+        this.zone = ZoneId.systemDefault();
+        this.minuteFrontier = Long.MIN_VALUE;
+        this.hourFrontier = Long.MIN_VALUE;
+        this.dayFrontier = Long.MIN_VALUE;
+        compact(currentMinute());
+    }
+    
+    public synchronized void recordOrder(Order order) {
+        apply(order, 1);
+    }
+    
+    public synchronized void recordCancellation(Order order) {
+        apply(order, -1);
+    }
+    
+    private void apply(Order order, int sign) {
+        compact(currentMinute());
+        
+        long minute = order.getOrderDate().atZone(zone).toEpochSecond() / 60;
+        Bucket bucket = bucketFor(minute);
+        if (bucket == null) {
+            return; // older than retention
+        }
+        
+        long orderCents = Math.round(order.getTotalAmount() * 100);
+        double subtotal = 0;
+        long units = 0;
+        for (int line = 0; line < order.getLineCount(); line++) {
+            subtotal += order.getLineSubtotal(line);
+            units += order.getLineQuantity(line);
+        }
+        
+        bucket.totals.add(sign, sign * units, sign * orderCents);
+        
+        // Split the order total (after discount) across lines by list value
+        for (int line = 0; line < order.getLineCount(); line++) {
+            Product product = order.getLineProduct(line);
+            int quantity = order.getLineQuantity(line);
+            long lineCents = subtotal == 0 ? 0 :
+                Math.round(orderCents * (order.getLineSubtotal(line) / subtotal));
+            
+            bucket.byCategory.computeIfAbsent(product.getCategory(), k -> new Totals())
+                             .add(sign, sign * quantity, sign * lineCents);
+            bucket.byProduct.computeIfAbsent(product.getProductId(), k -> new Totals())
+                            .add(sign, sign * quantity, sign * lineCents);
+        }
+    }
+    
+    private Bucket bucketFor(long minute) {
+        if (minute >= minuteFrontier) {
+            return minuteBuckets.computeIfAbsent(minute, k -> new Bucket());
+        }
+        if (minute >= hourFrontier) {
+            return hourBuckets.computeIfAbsent(floor(minute, MINUTES_PER_HOUR), k -> new Bucket());
+        }
+        if (minute >= dayFrontier) {
+            return dayBuckets.computeIfAbsent(floor(minute, MINUTES_PER_DAY), k -> new Bucket());
+        }
+        return null;
+    }
+    
+    /**
+     * Folds aged minute buckets into hours, aged hours into days, and drops
+     * days past retention. Frontiers only move on whole-bucket boundaries.
+     */
+    private void compact(long now) {
+        long newMinuteFrontier = floor(now - MINUTE_RETENTION, MINUTES_PER_HOUR);
+        if (newMinuteFrontier > minuteFrontier) {
+            rollUp(minuteBuckets, newMinuteFrontier, hourBuckets, MINUTES_PER_HOUR);
+            minuteFrontier = newMinuteFrontier;
+        }
+        
+        long newHourFrontier = floor(minuteFrontier - HOUR_RETENTION, MINUTES_PER_DAY);
+        if (newHourFrontier > hourFrontier) {
+            rollUp(hourBuckets, newHourFrontier, dayBuckets, MINUTES_PER_DAY);
+            hourFrontier = newHourFrontier;
+        }
+        
+        long newDayFrontier = hourFrontier - DAY_RETENTION;
+        if (newDayFrontier > dayFrontier) {
+            dayBuckets.headMap(newDayFrontier).clear();
+            dayFrontier = newDayFrontier;
+        }
+    }
+    
+    private static void rollUp(TreeMap<Long, Bucket> source, long before,
+                               TreeMap<Long, Bucket> target, long width) {
+        SortedMap<Long, Bucket> aged = source.headMap(before);
+        for (Map.Entry<Long, Bucket> entry : aged.entrySet()) {
+            target.computeIfAbsent(floor(entry.getKey(), width), k -> new Bucket())
+                  .merge(entry.getValue());
+        }
+        aged.clear();
+    }
+    
+    // Windowed queries
+    public synchronized Totals getTotals(Duration window) {
+        Totals result = new Totals();
+        for (Bucket bucket : bucketsSince(window)) {
+            result.add(bucket.totals);
+        }
+        return result;
+    }
+    
+    public synchronized Map<String, Totals> getTotalsByCategory(Duration window) {
+        return sumBy(window, true);
+    }
+    
+    public synchronized Map<String, Totals> getTotalsByProduct(Duration window) {
+        return sumBy(window, false);
+    }
+    
+    public synchronized Map<String, Double> getRevenueByCategory(Duration window) {
+        Map<String, Double> revenue = new HashMap<>();
+        for (Map.Entry<String, Totals> entry : sumBy(window, true).entrySet()) {
+            revenue.put(entry.getKey(), entry.getValue().getRevenue());
+        }
+        return revenue;
+    }
+    
+    private Map<String, Totals> sumBy(Duration window, boolean byCategory) {
+        Map<String, Totals> result = new HashMap<>();
+        for (Bucket bucket : bucketsSince(window)) {
+            Bucket.mergeInto(result, byCategory ? bucket.byCategory : bucket.byProduct);
+        }
+        result.values().removeIf(t -> t.getOrders() <= 0);
+        return result;
+    }
+    
+    private List<Bucket> bucketsSince(Duration window) {
+        long now = currentMinute();
+        compact(now);
+        long from = now - window.toMinutes();
+        
+        List<Bucket> buckets = new ArrayList<>();
+        buckets.addAll(dayBuckets.tailMap(from, true).values());
+        buckets.addAll(hourBuckets.tailMap(from, true).values());
+        buckets.addAll(minuteBuckets.tailMap(from, true).values());
+        return buckets;
+    }
+    
+    public synchronized int getBucketCount() {
+        return minuteBuckets.size() + hourBuckets.size() + dayBuckets.size();
+    }
+    
+    private static long floor(long minute, long width) {
+        return Math.floorDiv(minute, width) * width;
+    }
+    
+    private static long currentMinute() {
+        return System.currentTimeMillis() / 60_000;
+    }
+}
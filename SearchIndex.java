@@ -0,0 +1,206 @@
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.stream.IntStream;
+
+/**
+ * SearchIndex - In-memory inverted index over product text
+ * Maps each token to a posting list of product IDs so a query only touches
+ * the products that actually match it. Writers are serialized; searches
+ * read the concurrent maps without locking.
+ */
+public class SearchIndex {
+
+    public enum MatchMode {
+        ALL,  // every query term must match
+        ANY   // at least one query term must match
+    }
+
+    // Field weights used for relevance ranking
+    private static final int NAME_WEIGHT = 3;
+    private static final int CATEGORY_WEIGHT = 2;
+    private static final int DESCRIPTION_WEIGHT = 1;
+    private static final int EXACT_MATCH_BONUS = 2;
+
+    private NavigableMap<String, Map<String, Integer>> postings; // token -> (productId -> weight)
+    private Map<String, Set<String>> productTokens;              // productId -> tokens
+
+    public SearchIndex() {
+        this.postings = new ConcurrentSkipListMap<>();
+        this.productTokens = new ConcurrentHashMap<>();
+    }
+
+    public synchronized void addProduct(Product product) {
+        String productId = product.getProductId();
+        removeProduct(productId);
+
+        Map<String, Integer> weights = new HashMap<>();
+        addField(weights, product.getName(), NAME_WEIGHT);
+        addField(weights, product.getCategory(), CATEGORY_WEIGHT);
+        addField(weights, product.getDescription(), DESCRIPTION_WEIGHT);
+
+        for (Map.Entry<String, Integer> entry : weights.entrySet()) {
+            postings.computeIfAbsent(entry.getKey(), k -> new ConcurrentHashMap<>())
+                    .put(productId, entry.getValue());
+        }
+        productTokens.put(productId, weights.keySet());
+    }
+    
+    /**
+     * Indexes a batch in one pass: products are tokenized in parallel, the
+     * batch is inverted locally, and each touched posting list takes one
+     * bulk putAll. Much cheaper than one addProduct per product when
+     * loading a catalog.
+     */
+    public synchronized void addAll(Collection<Product> products) {
+        List<Product> batch = new ArrayList<>(products);
+        List<Map<String, Integer>> tokenWeights = new ArrayList<>(Collections.nCopies(batch.size(), null));
+        IntStream.range(0, batch.size()).parallel().forEach(i -> {
+            Product product = batch.get(i);
+            Map<String, Integer> weights = new HashMap<>();
+            addField(weights, product.getName(), NAME_WEIGHT);
+            addField(weights, product.getCategory(), CATEGORY_WEIGHT);
+            addField(weights, product.getDescription(), DESCRIPTION_WEIGHT);
+            tokenWeights.set(i, weights);
+        });
+        
+        Map<String, Map<String, Integer>> inverted = new HashMap<>();
+        for (int i = 0; i < batch.size(); i++) {
+            String productId = batch.get(i).getProductId();
+            removeProduct(productId);
+            for (Map.Entry<String, Integer> entry : tokenWeights.get(i).entrySet()) {
+                inverted.computeIfAbsent(entry.getKey(), k -> new HashMap<>())
+                        .put(productId, entry.getValue());
+            }
+            productTokens.put(productId, tokenWeights.get(i).keySet());
+        }
+        
+        for (Map.Entry<String, Map<String, Integer>> entry : inverted.entrySet()) {
+            postings.computeIfAbsent(entry.getKey(), k -> new ConcurrentHashMap<>())
+                    .putAll(entry.getValue());
+        }
+    }
+
+    public synchronized void removeProduct(String productId) {
+        Set<String> tokens = productTokens.remove(productId);
+        if (tokens == null) {
+            return;
+        }
+
+        for (String token : tokens) {
+            Map<String, Integer> posting = postings.get(token);
+            if (posting != null) {
+                posting.remove(productId);
+                if (posting.isEmpty()) {
+                    postings.remove(token);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns matching product IDs, best match first. Each query term matches
+     * indexed tokens it is a prefix of; whole-token matches rank higher.
+     */
+    public List<String> search(String query, MatchMode mode) {
+        List<String> terms = tokenize(query);
+        if (terms.isEmpty()) {
+            return new ArrayList<>();
+        }
+
+        // Resolve each term to its scored candidates, smallest first for AND
+        List<Map<String, Integer>> termMatches = new ArrayList<>();
+        for (String term : new LinkedHashSet<>(terms)) {
+            Map<String, Integer> matches = matchTerm(term);
+            if (matches.isEmpty() && mode == MatchMode.ALL) {
+                return new ArrayList<>();
+            }
+            termMatches.add(matches);
+        }
+        termMatches.sort(Comparator.comparingInt(Map::size));
+
+        Map<String, Integer> scores;
+        if (mode == MatchMode.ALL) {
+            scores = new HashMap<>(termMatches.get(0));
+            for (int i = 1; i < termMatches.size() && !scores.isEmpty(); i++) {
+                Map<String, Integer> matches = termMatches.get(i);
+                scores.keySet().retainAll(matches.keySet());
+                for (Map.Entry<String, Integer> entry : scores.entrySet()) {
+                    entry.setValue(entry.getValue() + matches.get(entry.getKey()));
+                }
+            }
+        } else {
+            scores = new HashMap<>();
+            for (Map<String, Integer> matches : termMatches) {
+                for (Map.Entry<String, Integer> entry : matches.entrySet()) {
+                    scores.merge(entry.getKey(), entry.getValue(), Integer::sum);
+                }
+            }
+        }
+
+        List<String> results = new ArrayList<>(scores.keySet());
+        results.sort((id1, id2) -> {
+            int scoreCompare = Integer.compare(scores.get(id2), scores.get(id1));
+            if (scoreCompare != 0) return scoreCompare;
+            return id1.compareTo(id2);
+        });
+        return results;
+    }
+
+    private Map<String, Integer> matchTerm(String term) {
+        Map<String, Integer> matches = new HashMap<>();
+
+        // All tokens starting with the term sit in one contiguous range
+        for (Map.Entry<String, Map<String, Integer>> entry :
+                postings.subMap(term, true, term + Character.MAX_VALUE, false).entrySet()) {
+            int bonus = entry.getKey().equals(term) ? EXACT_MATCH_BONUS : 1;
+            for (Map.Entry<String, Integer> posting : entry.getValue().entrySet()) {
+                matches.merge(posting.getKey(), posting.getValue() * bonus, Math::max);
+            }
+        }
+        return matches;
+    }
+
+    private void addField(Map<String, Integer> weights, String text, int weight) {
+        for (String token : tokenize(text)) {
+            weights.merge(token, weight, Integer::sum);
+        }
+    }
+
+    static List<String> tokenize(String text) {
+        List<String> tokens = new ArrayList<>();
+        if (text == null) {
+            return tokens;
+        }
+
+        // Runs of letters and digits, as [\p{L}\p{N}]+ without the regex engine
+        String lower = text.toLowerCase();
+        int start = -1;
+        for (int i = 0; i <= lower.length(); i++) {
+            boolean wordChar = i < lower.length() && isWordChar(lower.codePointAt(i));
+            if (wordChar && start < 0) {
+                start = i;
+            } else if (!wordChar && start >= 0) {
+                tokens.add(lower.substring(start, i));
+                start = -1;
+            }
+            if (i < lower.length() && Character.isSupplementaryCodePoint(lower.codePointAt(i))) {
+                i++;
+            }
+        }
+        return tokens;
+    }
+    
+    private static boolean isWordChar(int codePoint) {
+        if (Character.isLetter(codePoint)) {
+            return true;
+        }
+        int type = Character.getType(codePoint);
+        return type == Character.DECIMAL_DIGIT_NUMBER || type == Character.LETTER_NUMBER ||
+               type == Character.OTHER_NUMBER;
+    }
+
+    public int getTokenCount() {
+        return postings.size();
+    }
+}
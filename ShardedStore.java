@@ -0,0 +1,489 @@
+import java.util.*;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Supplier;
+
+/**
+ * ShardedStore - Customers and products partitioned across single-writer shards
+ * Each customer (with their cart and orders) and each product (with its
+ * stock) belongs to one of N shards, chosen by a hash of its ID. A shard's
+ * maps are only ever touched by the shard's own thread, so nothing inside
+ * a shard is locked or shared; callers hand work to the owning shard and
+ * get a future back. Independent checkouts on different shards never
+ * contend, which is what lets throughput grow with the shard count.
+ *
+ * A checkout runs on the customer's shard, but stock lives on the
+ * products' shards, so it commits in two phases. Prepare asks every shard
+ * with a product in the cart to hold its lines, the same holds carts use,
+ * and each shard votes. If all agree, commit turns the holds into stock
+ * decrements; otherwise abort releases the holds that were taken. Should
+ * a commit still fail, the shards that did commit put their stock back
+ * and no order is created. The
+ * coordinator never blocks its thread waiting for a vote: each phase
+ * continues on the customer's shard once the replies are in, so shards
+ * coordinating each other's checkouts can't deadlock.
+ *
+ * This is a separate deployment mode covering catalog, carts, checkout,
+ * cancellation and order lookup; search, analytics and persistence stay
+ * with ECommerceSystem.
+ */
+public class ShardedStore implements AutoCloseable {
+    
+    private static final class Shard {
+        final int index;
+        final ExecutorService thread;
+        final Map<String, Product> products = new HashMap<>();
+        final Map<String, Customer> customers = new HashMap<>();
+        final Map<String, Order> orders = new HashMap<>();
+        final InventoryStore inventory = new InventoryStore();
+        final Set<String> checkingOut = new HashSet<>(); // customers mid-checkout
+        long orderCounter;
+        
+        Shard(int index) {
+            this.index = index;
+            this.thread = Executors.newSingleThreadExecutor(r -> {
+                Thread t = new Thread(r, "shard-" + index);
+                t.setDaemon(true);
+                return t;
+            });
+        }
+        
+        <T> CompletableFuture<T> submit(Supplier<T> work) {
+            return CompletableFuture.supplyAsync(work, thread);
+        }
+    }
+    
+    private final Shard[] shards;
+    
+    public ShardedStore(int shardCount) {
+        if (shardCount <= 0) {
+            throw new IllegalArgumentException("shardCount must be positive");
+        }
+        this.shards = new Shard[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            shards[i] = new Shard(i);
+        }
+    }
+    
+    public int getShardCount() {
+        return shards.length;
+    }
+    
+    /**
+     * The shard owning a customer or product ID.
+     */
+    public int shardOf(String id) {
+        int h = id.hashCode() * 0x9E3779B9;
+        return Math.floorMod(h ^ (h >>> 16), shards.length);
+    }
+    
+    private Shard owner(String id) {
+        return shards[shardOf(id)];
+    }
+    
+    // Catalog and customers
+    public void addProduct(Product product) {
+        addProducts(Collections.singletonList(product));
+    }
+    
+    /**
+     * Adds the batch with one hand-off per shard.
+     */
+    public void addProducts(Collection<Product> batch) {
+        Map<Shard, List<Product>> byShard = new HashMap<>();
+        for (Product product : batch) {
+            byShard.computeIfAbsent(owner(product.getProductId()), s -> new ArrayList<>()).add(product);
+        }
+        List<CompletableFuture<?>> done = new ArrayList<>();
+        for (Map.Entry<Shard, List<Product>> entry : byShard.entrySet()) {
+            Shard shard = entry.getKey();
+            done.add(shard.submit(() -> {
+                for (Product product : entry.getValue()) {
+                    product.checkStore(shard.inventory);
+                }
+                for (Product product : entry.getValue()) {
+                    Product previous = shard.products.put(product.getProductId(), product);
+                    if (previous != null && previous != product) {
+                        previous.detach();
+                    }
+                    product.attach(shard.inventory);
+                }
+                return null;
+            }));
+        }
+        CompletableFuture.allOf(done.toArray(new CompletableFuture<?>[0])).join();
+    }
+    
+    public void addCustomer(Customer customer) {
+        addCustomers(Collections.singletonList(customer));
+    }
+    
+    public void addCustomers(Collection<Customer> batch) {
+        Map<Shard, List<Customer>> byShard = new HashMap<>();
+        for (Customer customer : batch) {
+            byShard.computeIfAbsent(owner(customer.getCustomerId()), s -> new ArrayList<>()).add(customer);
+        }
+        List<CompletableFuture<?>> done = new ArrayList<>();
+        for (Map.Entry<Shard, List<Customer>> entry : byShard.entrySet()) {
+            Shard shard = entry.getKey();
+            done.add(shard.submit(() -> {
+                for (Customer customer : entry.getValue()) {
+                    shard.customers.put(customer.getCustomerId(), customer);
+                }
+                return null;
+            }));
+        }
+        CompletableFuture.allOf(done.toArray(new CompletableFuture<?>[0])).join();
+    }
+    
+    public Product getProduct(String productId) {
+        Shard shard = owner(productId);
+        return shard.submit(() -> shard.products.get(productId)).join();
+    }
+    
+    public Customer getCustomer(String customerId) {
+        Shard shard = owner(customerId);
+        return shard.submit(() -> shard.customers.get(customerId)).join();
+    }
+    
+    // Carts
+    public boolean addToCart(String customerId, String productId, int quantity) {
+        return addToCartAsync(customerId, productId, quantity).join();
+    }
+    
+    /**
+     * Looks the product up on its shard, then adds it on the customer's.
+     * Unlike ECommerceSystem, nothing is held until checkout. The stock
+     * check here reads a product owned by another shard, so it is only a
+     * racy hint; the prepare phase on the owning shard is the real check.
+     */
+    public CompletableFuture<Boolean> addToCartAsync(String customerId, String productId, int quantity) {
+        if (quantity <= 0) {
+            return CompletableFuture.completedFuture(false);
+        }
+        Shard productShard = owner(productId);
+        Shard customerShard = owner(customerId);
+        return productShard.submit(() -> productShard.products.get(productId))
+            .thenApplyAsync(product -> {
+                Customer customer = customerShard.customers.get(customerId);
+                return product != null && customer != null &&
+                       customer.getCart().addItem(product, quantity);
+            }, customerShard.thread);
+    }
+    
+    // Checkout
+    public ECommerceSystem.OrderResult placeOrder(String customerId, String paymentMethod) {
+        return placeOrderAsync(customerId, paymentMethod).join();
+    }
+    
+    public CompletableFuture<ECommerceSystem.OrderResult> placeOrderAsync(String customerId,
+                                                                          String paymentMethod) {
+        Shard home = owner(customerId);
+        return home.submit(() -> beginCheckout(home, customerId, paymentMethod))
+                   .thenCompose(result -> result);
+    }
+    
+    /**
+     * Phase one, on the customer's shard: snapshots the cart and sends each
+     * participating shard its lines to hold. However the later phases end,
+     * even exceptionally, the customer's checkout flag is cleared on this
+     * shard and the caller gets an OrderResult.
+     */
+    private CompletableFuture<ECommerceSystem.OrderResult> beginCheckout(Shard home, String customerId,
+                                                                         String paymentMethod) {
+        Customer customer = home.customers.get(customerId);
+        if (customer == null) {
+            return failed("Customer not found");
+        }
+        ShoppingCart cart = customer.getCart();
+        if (cart.isEmpty()) {
+            return failed("Cart is empty");
+        }
+        Map<Product, Integer> items = new LinkedHashMap<>(cart.getItems());
+        double total = cart.getTotal();
+        Map<Shard, Map<Product, Integer>> byShard = new LinkedHashMap<>();
+        for (Map.Entry<Product, Integer> entry : items.entrySet()) {
+            byShard.computeIfAbsent(owner(entry.getKey().getProductId()), s -> new LinkedHashMap<>())
+                   .put(entry.getKey(), entry.getValue());
+        }
+        if (!home.checkingOut.add(customerId)) {
+            return failed("Checkout already in progress");
+        }
+        
+        CompletableFuture<ECommerceSystem.OrderResult> outcome;
+        try {
+            Map<Shard, CompletableFuture<String>> votes = new LinkedHashMap<>();
+            for (Map.Entry<Shard, Map<Product, Integer>> entry : byShard.entrySet()) {
+                votes.put(entry.getKey(), entry.getKey().submit(() -> prepare(entry.getValue())));
+            }
+            outcome = CompletableFuture.allOf(votes.values().toArray(new CompletableFuture<?>[0]))
+                .handleAsync((v, e) -> decide(home, customer, items, total, paymentMethod, byShard, votes),
+                             home.thread)
+                .thenCompose(result -> result);
+        } catch (RuntimeException e) {
+            home.checkingOut.remove(customerId);
+            throw e;
+        }
+        return outcome.handleAsync((result, e) -> {
+            home.checkingOut.remove(customerId);
+            return e == null ? result : new ECommerceSystem.OrderResult(
+                false, "Checkout failed: " + causeOf(e).getMessage(), null);
+        }, home.thread);
+    }
+    
+    /**
+     * Phase two, back on the customer's shard once every vote is in:
+     * commits everywhere if all shards held their lines, otherwise
+     * releases the holds that were taken. A shard whose prepare threw
+     * counts as a no; it released its own holds.
+     */
+    private CompletableFuture<ECommerceSystem.OrderResult> decide(
+            Shard home, Customer customer, Map<Product, Integer> items, double total,
+            String paymentMethod, Map<Shard, Map<Product, Integer>> byShard,
+            Map<Shard, CompletableFuture<String>> votes) {
+        String failure = null;
+        for (CompletableFuture<String> vote : votes.values()) {
+            if (failure == null) {
+                failure = reply(vote, "prepare");
+            }
+        }
+        
+        if (failure != null) {
+            List<CompletableFuture<?>> acks = new ArrayList<>();
+            for (Map.Entry<Shard, Map<Product, Integer>> entry : byShard.entrySet()) {
+                Map<Product, Integer> lines = entry.getValue();
+                if (reply(votes.get(entry.getKey()), "prepare") == null) {
+                    acks.add(entry.getKey().submit(() -> abort(lines)));
+                }
+            }
+            return failAfter(acks, failure);
+        }
+        
+        Map<Shard, CompletableFuture<String>> commits = new LinkedHashMap<>();
+        for (Map.Entry<Shard, Map<Product, Integer>> entry : byShard.entrySet()) {
+            Map<Product, Integer> lines = entry.getValue();
+            commits.put(entry.getKey(), entry.getKey().submit(() -> commit(lines)));
+        }
+        return CompletableFuture.allOf(commits.values().toArray(new CompletableFuture<?>[0]))
+            .handleAsync((v, e) -> finish(home, customer, items, total, paymentMethod, byShard, commits),
+                         home.thread)
+            .thenCompose(result -> result);
+    }
+    
+    /**
+     * Builds the order once every shard has committed. If any shard
+     * couldn't, the others put back the stock they took, so nothing is sold,
+     * and the checkout fails. A commit that threw has already undone itself.
+     */
+    private CompletableFuture<ECommerceSystem.OrderResult> finish(
+            Shard home, Customer customer, Map<Product, Integer> items, double total,
+            String paymentMethod, Map<Shard, Map<Product, Integer>> byShard,
+            Map<Shard, CompletableFuture<String>> commits) {
+        String failure = null;
+        for (CompletableFuture<String> commit : commits.values()) {
+            if (failure == null) {
+                failure = reply(commit, "commit");
+            }
+        }
+        
+        if (failure != null) {
+            List<CompletableFuture<?>> acks = new ArrayList<>();
+            for (Map.Entry<Shard, CompletableFuture<String>> entry : commits.entrySet()) {
+                Map<Product, Integer> lines = byShard.get(entry.getKey());
+                if (reply(entry.getValue(), "commit") == null) {
+                    acks.add(entry.getKey().submit(() -> restock(lines)));
+                }
+            }
+            return failAfter(acks, failure);
+        }
+        
+        String orderId = "ORD" + (home.orderCounter++ * shards.length + home.index);
+        Order order = new Order(orderId, customer.getCustomerId(), items, total,
+                                customer.getAddress(), paymentMethod);
+        customer.addOrder(order);
+        home.orders.put(orderId, order);
+        
+        // Take out what was bought, keeping anything added meanwhile
+        ShoppingCart cart = customer.getCart();
+        for (Map.Entry<Product, Integer> entry : items.entrySet()) {
+            int remaining = cart.getItems().getOrDefault(entry.getKey(), 0) - entry.getValue();
+            cart.removeItem(entry.getKey());
+            if (remaining > 0) {
+                cart.restoreItem(entry.getKey(), remaining);
+            }
+        }
+        return CompletableFuture.completedFuture(
+            new ECommerceSystem.OrderResult(true, "Order placed successfully!", order));
+    }
+    
+    /**
+     * Holds every line on this shard, or none of them. Returns null on
+     * success, otherwise the reason.
+     */
+    private static String prepare(Map<Product, Integer> lines) {
+        Map<Product, Integer> held = new LinkedHashMap<>();
+        try {
+            for (Map.Entry<Product, Integer> entry : lines.entrySet()) {
+                if (!entry.getKey().tryReserve(entry.getValue())) {
+                    abort(held);
+                    return "Insufficient stock for: " + entry.getKey().getName();
+                }
+                held.put(entry.getKey(), entry.getValue());
+            }
+        } catch (RuntimeException e) {
+            abort(held);
+            throw e;
+        }
+        return null;
+    }
+    
+    /**
+     * Turns this shard's holds into stock decrements. Returns null on
+     * success; otherwise puts back what it took here, releases the holds
+     * it didn't get to, and returns the reason, leaving the shard as if
+     * it had aborted.
+     */
+    private static String commit(Map<Product, Integer> lines) {
+        Map<Product, Integer> taken = new LinkedHashMap<>();
+        try {
+            for (Map.Entry<Product, Integer> entry : lines.entrySet()) {
+                if (!entry.getKey().tryCommitReservation(entry.getValue(), entry.getValue())) {
+                    undoCommit(lines, taken);
+                    return "Could not take stock for: " + entry.getKey().getName();
+                }
+                taken.put(entry.getKey(), entry.getValue());
+            }
+        } catch (RuntimeException e) {
+            undoCommit(lines, taken);
+            throw e;
+        }
+        return null;
+    }
+    
+    private static void undoCommit(Map<Product, Integer> lines, Map<Product, Integer> taken) {
+        restock(taken);
+        for (Map.Entry<Product, Integer> line : lines.entrySet()) {
+            if (!taken.containsKey(line.getKey())) {
+                line.getKey().releaseReservation(line.getValue());
+            }
+        }
+    }
+    
+    private static Void abort(Map<Product, Integer> lines) {
+        for (Map.Entry<Product, Integer> entry : lines.entrySet()) {
+            entry.getKey().releaseReservation(entry.getValue());
+        }
+        return null;
+    }
+    
+    /**
+     * Undoes a commit whose checkout failed on another shard.
+     */
+    private static Void restock(Map<Product, Integer> lines) {
+        for (Map.Entry<Product, Integer> entry : lines.entrySet()) {
+            entry.getKey().increaseStock(entry.getValue());
+        }
+        return null;
+    }
+    
+    private static CompletableFuture<ECommerceSystem.OrderResult> failed(String message) {
+        return CompletableFuture.completedFuture(new ECommerceSystem.OrderResult(false, message, null));
+    }
+    
+    /**
+     * Fails the checkout once the clean-up tasks have run, whether or not
+     * they succeeded.
+     */
+    private static CompletableFuture<ECommerceSystem.OrderResult> failAfter(
+            List<CompletableFuture<?>> cleanup, String reason) {
+        return CompletableFuture.allOf(cleanup.toArray(new CompletableFuture<?>[0]))
+            .handle((v, e) -> new ECommerceSystem.OrderResult(false, reason, null));
+    }
+    
+    /**
+     * A shard's reply to a phase: null if it succeeded, otherwise why not.
+     * A shard that threw counts as having refused.
+     */
+    private static String reply(CompletableFuture<String> future, String phase) {
+        try {
+            return future.join();
+        } catch (CompletionException | CancellationException e) {
+            return "Shard failed to " + phase + ": " + causeOf(e).getMessage();
+        }
+    }
+    
+    private static Throwable causeOf(Throwable e) {
+        return e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+    }
+    
+    // Orders
+    public Order getOrder(String orderId) {
+        Shard shard = orderShard(orderId);
+        return shard == null ? null : shard.submit(() -> shard.orders.get(orderId)).join();
+    }
+    
+    public List<Order> getOrderHistory(String customerId) {
+        Shard shard = owner(customerId);
+        return shard.submit(() -> {
+            Customer customer = shard.customers.get(customerId);
+            return customer == null ? new ArrayList<Order>() : customer.getOrderHistory();
+        }).join();
+    }
+    
+    /**
+     * Cancels on the customer's shard, then returns the stock to each
+     * product's shard. No vote is needed: putting stock back can't fail.
+     */
+    public boolean cancelOrder(String orderId) {
+        Shard home = orderShard(orderId);
+        if (home == null) {
+            return false;
+        }
+        return home.submit(() -> {
+            Order order = home.orders.get(orderId);
+            Order.OrderStatus oldStatus = order == null ? null : order.getStatus();
+            if (order == null || !order.cancel()) {
+                return CompletableFuture.completedFuture(false);
+            }
+            Customer customer = home.customers.get(order.getCustomerId());
+            if (customer != null) {
+                customer.onOrderStatusChanged(order, oldStatus, Order.OrderStatus.CANCELLED);
+            }
+            
+            List<CompletableFuture<?>> restocked = new ArrayList<>();
+            for (int line = 0; line < order.getLineCount(); line++) {
+                Product product = order.getLineProduct(line);
+                int quantity = order.getLineQuantity(line);
+                restocked.add(owner(product.getProductId()).submit(() -> {
+                    product.increaseStock(quantity);
+                    return null;
+                }));
+            }
+            return CompletableFuture.allOf(restocked.toArray(new CompletableFuture<?>[0])).thenApply(v -> true);
+        }).thenCompose(result -> result).join();
+    }
+    
+    private Shard orderShard(String orderId) {
+        if (!orderId.startsWith("ORD")) {
+            return null;
+        }
+        try {
+            return shards[(int) Math.floorMod(Long.parseLong(orderId.substring(3)), (long) shards.length)];
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+    
+    /**
+     * Stops the shard threads once their queued work has run.
+     */
+    @Override
+    public void close() {
+        for (Shard shard : shards) {
+            shard.thread.shutdown();
+        }
+    }
+}
@@ -1,20 +1,30 @@
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * ShoppingCart - Manages items in a customer's cart
+ * Stock holds are not taken here: ECommerceSystem.addToCart holds the
+ * stock through CartReservations before a line reaches the cart. The
+ * mutators that skip holds are package-private for that reason.
  */
 public class ShoppingCart {
     private String customerId;
     private Map<Product, Integer> items; // Product -> Quantity
-    private double discountPercent;
+    private volatile double discountPercent;
     
     public ShoppingCart(String customerId) {
         this.customerId = customerId;
-        this.items = new HashMap<>();
+        this.items = new ConcurrentHashMap<>();
         this.discountPercent = 0.0;
     }
     
-    public boolean addItem(Product product, int quantity) {
+    /**
+     * Adds the line if that much is available right now, but holds nothing,
+     * so the stock can still go to someone else before checkout. For stores
+     * without cart holds, such as ShardedStore, whose checkout holds stock
+     * only while it prepares.
+     */
+    synchronized boolean addItem(Product product, int quantity) {
         if (!product.isAvailable(quantity)) {
             return false;
         }
@@ -23,11 +33,36 @@ public class ShoppingCart {
         return true;
     }
     
-    public boolean removeItem(Product product) {
+    /**
+     * Puts a line back without a stock check or a hold: recovered carts,
+     * whose holds were in memory only, and lines a ShardedStore checkout
+     * didn't buy. As after an expired hold, the line may exceed what is
+     * available now and checkout needs the stock to be free.
+     */
+    synchronized void restoreItem(Product product, int quantity) {
+        items.merge(product, quantity, Integer::sum);
+    }
+    
+    /**
+     * Adds quantity whose stock the caller already holds for this cart, so
+     * there is nothing left to check.
+     */
+    synchronized void addHeldItem(Product product, int quantity) {
+        items.merge(product, quantity, Integer::sum);
+    }
+    
+    /**
+     * Drops the line; the caller releases any hold on it.
+     */
+    synchronized boolean removeItem(Product product) {
         return items.remove(product) != null;
     }
     
-    public boolean updateQuantity(Product product, int newQuantity) {
+    /**
+     * Sets the line's quantity after an availability check; like addItem it
+     * takes no hold, and it doesn't adjust one either.
+     */
+    synchronized boolean updateQuantity(Product product, int newQuantity) {
         if (newQuantity <= 0) {
             return removeItem(product);
         }
@@ -40,45 +75,49 @@ public class ShoppingCart {
         return true;
     }
     
-    public void clear() {
+    synchronized void clear() {
         items.clear();
     }
     
-    public boolean isEmpty() {
+    public synchronized boolean isEmpty() {
         return items.isEmpty();
     }
     
-    public int getTotalItems() {
+    public synchronized int getTotalItems() {
         return items.values().stream().mapToInt(Integer::intValue).sum();
     }
     
-    public double getSubtotal() {
+    public synchronized double getSubtotal() {
         return items.entrySet().stream()
                    .mapToDouble(e -> e.getKey().getPrice() * e.getValue())
                    .sum();
     }
     
-    public double getDiscountAmount() {
+    public synchronized double getDiscountAmount() {
         return getSubtotal() * (discountPercent / 100);
     }
     
-    public double getTotal() {
+    public synchronized double getTotal() {
         return getSubtotal() - getDiscountAmount();
     }
     
-    public void applyDiscount(double percent) {
+    public synchronized void applyDiscount(double percent) {
         this.discountPercent = Math.max(0, Math.min(100, percent));
     }
     
+    /**
+     * Read-only live view of the cart; hold the cart's lock to get a stable
+     * snapshot across several reads.
+     */
     public Map<Product, Integer> getItems() {
-        return new HashMap<>(items);
+        return Collections.unmodifiableMap(items);
     }
     
     public String getCustomerId() { return customerId; }
     public double getDiscountPercent() { return discountPercent; }
     
     @Override
-    public String toString() {
+    public synchronized String toString() {
         if (isEmpty()) {
             return "Cart is empty";
         }
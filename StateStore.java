@@ -0,0 +1,380 @@
+import java.io.*;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Consumer;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * StateStore - Durable persistence for ECommerceSystem
+ * Every mutation is appended to a write-ahead log; periodic snapshots
+ * capture the full state so the log can be truncated. Recovery loads the
+ * latest snapshot and replays only the log records written after it.
+ * Both files use BinaryCodec and carry its format version.
+ *
+ * Mutations hold the shared side of a read-write lock while they apply
+ * and log; a snapshot takes the exclusive side so it sees a state that
+ * matches an exact log position.
+ */
+public class StateStore implements Closeable {
+    
+    private static final String SNAPSHOT_FILE = "snapshot.bin";
+    private static final String LOG_FILE = "wal.log";
+    private static final int SNAPSHOT_MAGIC = 0x45435331; // "ECS1"
+    private static final int FLUSH_BYTES = 256 * 1024;
+    
+    // Log record types
+    private static final byte PRODUCT = 1;
+    private static final byte CUSTOMER = 2;
+    private static final byte CART_ADD = 3;
+    private static final byte CART_REMOVE = 4;
+    private static final byte ORDER = 5;
+    private static final byte STATUS = 6;
+    private static final byte RESTOCK = 7;
+    private static final byte REVIEW = 8;
+    private static final byte BATCH_ORDER = 9;
+    
+    private final Path directory;
+    private final ReentrantReadWriteLock stateLock;
+    private WriteAheadLog log;
+    private ScheduledExecutorService snapshotScheduler;
+    
+    private StateStore(Path directory) {
+        this.directory = directory;
+        this.stateLock = new ReentrantReadWriteLock();
+    }
+    
+    /**
+     * Restores the system from the directory (if it holds any state) and
+     * opens the log for new mutations.
+     */
+    public static StateStore open(Path directory, ECommerceSystem system) throws IOException {
+        Files.createDirectories(directory);
+        StateStore store = new StateStore(directory);
+        
+        long snapshotSequence = store.loadSnapshot(system);
+        long lastSequence = WriteAheadLog.replay(directory.resolve(LOG_FILE), (sequence, payload) -> {
+            if (sequence > snapshotSequence) {
+                store.apply(system, payload);
+            }
+        });
+        
+        store.log = new WriteAheadLog(directory.resolve(LOG_FILE),
+                                      Math.max(snapshotSequence, lastSequence));
+        return store;
+    }
+    
+    public void scheduleSnapshots(ECommerceSystem system, Duration interval) {
+        snapshotScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "snapshot-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        snapshotScheduler.scheduleWithFixedDelay(() -> {
+            try {
+                snapshot(system);
+            } catch (IOException e) {
+                System.err.println("Snapshot failed: " + e.getMessage());
+            }
+        }, interval.toMillis(), interval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+    
+    // Mutation bracketing
+    public void beginMutation() {
+        stateLock.readLock().lock();
+    }
+    
+    public void endMutation() {
+        stateLock.readLock().unlock();
+    }
+    
+    /**
+     * Waits until everything logged so far is on disk. Called once a
+     * mutation has released its locks, so concurrent callers share an fsync.
+     */
+    public void awaitDurable() {
+        try {
+            log.awaitDurable();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+    
+    // Log records
+    public void logProduct(Product product) {
+        append(PRODUCT, out -> BinaryCodec.writeProduct(out, product));
+    }
+    
+    public void logCustomer(Customer customer) {
+        append(CUSTOMER, out -> BinaryCodec.writeCustomer(out, customer));
+    }
+    
+    public void logCartAdd(String customerId, String productId, int quantity) {
+        append(CART_ADD, out -> {
+            out.writeInterned(customerId);
+            out.writeInterned(productId);
+            out.writeVarInt(quantity);
+        });
+    }
+    
+    public void logCartRemove(String customerId, String productId) {
+        append(CART_REMOVE, out -> {
+            out.writeInterned(customerId);
+            out.writeInterned(productId);
+        });
+    }
+    
+    public void logOrder(Order order) {
+        append(ORDER, out -> BinaryCodec.writeOrder(out, order));
+    }
+    
+    /**
+     * An order placed by placeOrders, which never touches the customer's
+     * cart, so replay takes its stock but leaves the cart alone.
+     */
+    public void logBatchOrder(Order order) {
+        append(BATCH_ORDER, out -> BinaryCodec.writeOrder(out, order));
+    }
+    
+    public void logStatus(Order order, Order.OrderStatus status) {
+        append(STATUS, out -> {
+            out.writeInterned(order.getOrderId());
+            out.writeByte(status.ordinal());
+            out.writeTimestamp(order.getLastStatusChange());
+        });
+    }
+    
+    public void logRestock(Order order) {
+        append(RESTOCK, out -> out.writeInterned(order.getOrderId()));
+    }
+    
+    public void logReview(String productId, Review review) {
+        append(REVIEW, out -> {
+            out.writeInterned(productId);
+            BinaryCodec.writeReview(out, review);
+        });
+    }
+    
+    /**
+     * Each record is encoded on its own, with its own string table, since
+     * replay can begin at any record after a snapshot.
+     */
+    private void append(byte type, Consumer<BinaryCodec.Encoder> writer) {
+        BinaryCodec.Encoder out = new BinaryCodec.Encoder(128);
+        out.writeByte(BinaryCodec.VERSION);
+        out.writeByte(type);
+        writer.accept(out);
+        log.append(out.toByteArray());
+    }
+    
+    private void apply(ECommerceSystem system, byte[] payload) {
+        BinaryCodec.Decoder in = new BinaryCodec.Decoder(ByteBuffer.wrap(payload));
+        int version = in.readByte();
+        if (version != BinaryCodec.VERSION) {
+            throw new UncheckedIOException(
+                new IOException("Unsupported log record version: " + version));
+        }
+        
+        int type = in.readByte();
+        switch (type) {
+            case PRODUCT:
+                system.addProduct(BinaryCodec.readProduct(in));
+                break;
+            case CUSTOMER:
+                system.addCustomer(BinaryCodec.readCustomer(in));
+                break;
+            case CART_ADD:
+                system.restoreCartItem(in.readInterned(), in.readInterned(), in.readVarInt());
+                break;
+            case CART_REMOVE:
+                system.removeFromCart(in.readInterned(), in.readInterned());
+                break;
+            case ORDER:
+            case BATCH_ORDER:
+                Order order = BinaryCodec.readOrder(in, system::getProduct);
+                if (order != null) {
+                    system.restoreOrder(order, true, type == ORDER);
+                }
+                break;
+            case STATUS:
+                system.restoreStatus(in.readInterned(),
+                                     Order.OrderStatus.values()[in.readByte()],
+                                     in.readTimestamp());
+                break;
+            case RESTOCK:
+                system.restoreStock(in.readInterned());
+                break;
+            case REVIEW:
+                String productId = in.readInterned();
+                system.restoreReview(productId, BinaryCodec.readReview(in));
+                break;
+            default:
+                throw new UncheckedIOException(
+                    new IOException("Unknown log record type: " + type));
+        }
+    }
+    
+    // Snapshots
+    /**
+     * Writes the full state to a new snapshot file, swaps it in atomically
+     * and truncates the log it supersedes.
+     */
+    public void snapshot(ECommerceSystem system) throws IOException {
+        stateLock.writeLock().lock();
+        try {
+            log.awaitDurable();
+            long sequence = log.getAppendedSequence();
+            
+            Path temp = directory.resolve(SNAPSHOT_FILE + ".tmp");
+            try (FileChannel file = FileChannel.open(temp, StandardOpenOption.CREATE,
+                                                     StandardOpenOption.WRITE,
+                                                     StandardOpenOption.TRUNCATE_EXISTING)) {
+                writeSnapshot(file, system, sequence);
+                file.force(true);
+            }
+            
+            Files.move(temp, directory.resolve(SNAPSHOT_FILE),
+                       StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            log.truncate();
+        } finally {
+            stateLock.writeLock().unlock();
+        }
+    }
+    
+    /**
+     * The whole snapshot is one codec stream, so an ID is spelled out once
+     * and referenced everywhere after. The buffer is drained to the file
+     * whenever it fills past FLUSH_BYTES.
+     */
+    private void writeSnapshot(FileChannel file, ECommerceSystem system,
+                               long sequence) throws IOException {
+        BinaryCodec.Encoder out = new BinaryCodec.Encoder(FLUSH_BYTES + 64 * 1024);
+        for (int shift = 24; shift >= 0; shift -= 8) {
+            out.writeByte(SNAPSHOT_MAGIC >>> shift);
+        }
+        out.writeByte(BinaryCodec.VERSION);
+        out.writeVarLong(sequence);
+        out.writeVarInt(system.getNextOrderNumber());
+        
+        List<Product> products = system.getAllProducts();
+        out.writeVarInt(products.size());
+        for (Product product : products) {
+            BinaryCodec.writeProduct(out, product);
+            List<Review> reviews = product.getReviews();
+            out.writeVarInt(reviews.size());
+            for (Review review : reviews) {
+                BinaryCodec.writeReview(out, review);
+            }
+            flushIfFull(out, file);
+        }
+        
+        List<Customer> customers = system.getAllCustomers();
+        out.writeVarInt(customers.size());
+        for (Customer customer : customers) {
+            BinaryCodec.writeCustomer(out, customer);
+            ShoppingCart cart = customer.getCart();
+            out.writePrice(cart.getDiscountPercent());
+            Map<Product, Integer> items = cart.getItems();
+            out.writeVarInt(items.size());
+            for (Map.Entry<Product, Integer> entry : items.entrySet()) {
+                out.writeInterned(entry.getKey().getProductId());
+                out.writeVarInt(entry.getValue());
+            }
+            flushIfFull(out, file);
+        }
+        
+        // Orders grouped by customer keep each order history in sequence
+        for (Customer customer : customers) {
+            List<Order> history = customer.getOrderHistory();
+            out.writeVarInt(history.size());
+            for (Order order : history) {
+                BinaryCodec.writeOrder(out, order);
+                flushIfFull(out, file);
+            }
+        }
+        out.flushTo(file);
+    }
+    
+    private static void flushIfFull(BinaryCodec.Encoder out, FileChannel file) throws IOException {
+        if (out.size() >= FLUSH_BYTES) {
+            out.flushTo(file);
+        }
+    }
+    
+    /**
+     * Maps the snapshot read-only and decodes it in place.
+     */
+    private long loadSnapshot(ECommerceSystem system) throws IOException {
+        Path path = directory.resolve(SNAPSHOT_FILE);
+        if (!Files.exists(path)) {
+            return 0;
+        }
+        
+        try (FileChannel file = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (file.size() > Integer.MAX_VALUE) {
+                throw new IOException("Snapshot too large to map: " + path);
+            }
+            BinaryCodec.Decoder in = new BinaryCodec.Decoder(
+                file.map(FileChannel.MapMode.READ_ONLY, 0, file.size()));
+            
+            int magic = 0;
+            for (int i = 0; i < 4; i++) {
+                magic = (magic << 8) | in.readByte();
+            }
+            if (magic != SNAPSHOT_MAGIC || in.readByte() != BinaryCodec.VERSION) {
+                throw new IOException("Unrecognized snapshot format: " + path);
+            }
+            long sequence = in.readVarLong();
+            int nextOrderNumber = in.readVarInt();
+            
+            int productCount = in.readVarInt();
+            for (int i = 0; i < productCount; i++) {
+                Product product = BinaryCodec.readProduct(in);
+                int reviewCount = in.readVarInt();
+                for (int r = 0; r < reviewCount; r++) {
+                    product.addReview(BinaryCodec.readReview(in));
+                }
+                system.addProduct(product);
+            }
+            
+            int customerCount = in.readVarInt();
+            for (int i = 0; i < customerCount; i++) {
+                Customer customer = BinaryCodec.readCustomer(in);
+                customer.getCart().applyDiscount(in.readPrice());
+                system.addCustomer(customer);
+                int lines = in.readVarInt();
+                for (int l = 0; l < lines; l++) {
+                    system.restoreCartItem(customer.getCustomerId(), in.readInterned(),
+                                           in.readVarInt());
+                }
+            }
+            
+            for (int i = 0; i < customerCount; i++) {
+                int orderCount = in.readVarInt();
+                for (int o = 0; o < orderCount; o++) {
+                    Order order = BinaryCodec.readOrder(in, system::getProduct);
+                    if (order != null) {
+                        system.restoreOrder(order, false, false);
+                    }
+                }
+            }
+            
+            system.restoreNextOrderNumber(nextOrderNumber);
+            return sequence;
+        } catch (BufferUnderflowException | IllegalStateException e) {
+            throw new IOException("Truncated or corrupt snapshot: " + path, e);
+        }
+    }
+    
+    @Override
+    public void close() throws IOException {
+        if (snapshotScheduler != null) {
+            snapshotScheduler.shutdownNow();
+        }
+        log.close();
+    }
+}
@@ -0,0 +1,572 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.ByteBuffer;
+import java.nio.file.*;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.*;
+import java.util.function.BiFunction;
+
+/**
+ * StoreBenchmark - Microbenchmarks for the core ECommerceSystem operations
+ * Builds a store with SyntheticData, then runs each operation for a warmup
+ * period and a measured period on one thread. Reports throughput, latency
+ * percentiles, bytes allocated per call and GC activity, so regressions in
+ * these paths show up between runs.
+ *
+ * Usage: java StoreBenchmark [--products N] [--customers N] [--orders N]
+ *                            [--reviews N] [--seed N] [--warmup SECONDS]
+ *                            [--measure SECONDS] [--only name,name]
+ *                            [--metrics true] [--shards N] [--clients N]
+ *                            [--verify false]
+ *
+ * Before measuring, checks that BinaryCodec round-trips products, reviews
+ * and orders, directly and through a write-ahead log, and that recovery
+ * leaves carts as they were; --verify false skips it.
+ *
+ * With --shards, also measures checkout throughput from concurrent
+ * clients against one ECommerceSystem and against ShardedStores of 1, 2,
+ * 4... up to N shards.
+ *
+ * Run with a fixed heap (e.g. -Xms2g -Xmx2g) for comparable numbers.
+ */
+public class StoreBenchmark {
+    
+    /**
+     * One benchmarked call. prepare runs before each timed call and is
+     * excluded from time and allocation, like a per-invocation setup.
+     */
+    private interface Operation {
+        default void prepare(int invocation) {}
+        Object run(int invocation);
+    }
+    
+    private static class Result {
+        String name;
+        double opsPerSecond;
+        long[] percentilesNanos; // p50, p90, p99, p99.9, max
+        double bytesPerCall;
+        long gcCount;
+        long gcMillis;
+    }
+    
+    private static final double[] PERCENTILES = { 0.50, 0.90, 0.99, 0.999, 1.0 };
+    
+    private static volatile int sink; // consumes results so calls aren't optimized away
+    
+    private final ECommerceSystem system;
+    private final SyntheticData data;
+    private final Random random;
+    private final com.sun.management.ThreadMXBean allocations;
+    private String lastOrderId;
+    
+    public StoreBenchmark(ECommerceSystem system, SyntheticData data) {
+        this.system = system;
+        this.data = data;
+        this.random = new Random(data.getSeed() + 1);
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        this.allocations = threads instanceof com.sun.management.ThreadMXBean &&
+                           ((com.sun.management.ThreadMXBean) threads).isThreadAllocatedMemorySupported() ?
+                           (com.sun.management.ThreadMXBean) threads : null;
+    }
+    
+    private Map<String, Operation> operations() {
+        Map<String, Operation> operations = new LinkedHashMap<>();
+        operations.put("searchProducts", new Operation() {
+            private String query;
+            
+            @Override
+            public void prepare(int invocation) {
+                query = data.searchQuery(random);
+            }
+            
+            @Override
+            public Object run(int invocation) {
+                return system.searchProducts(query);
+            }
+        });
+        
+        operations.put("autocomplete", new Operation() {
+            private String prefix;
+            
+            // A partly typed query, with two letters swapped a third of the time
+            @Override
+            public void prepare(int invocation) {
+                String query = data.searchQuery(random).toLowerCase();
+                char[] typed = query.substring(0, 1 + random.nextInt(query.length())).toCharArray();
+                if (typed.length > 3 && random.nextInt(3) == 0) {
+                    int at = 1 + random.nextInt(typed.length - 2);
+                    char swap = typed[at];
+                    typed[at] = typed[at + 1];
+                    typed[at + 1] = swap;
+                }
+                prefix = new String(typed);
+            }
+            
+            @Override
+            public Object run(int invocation) {
+                return system.autocomplete(prefix, 10);
+            }
+        });
+        
+        operations.put("getRecommendations", new Operation() {
+            private String customerId;
+            
+            @Override
+            public void prepare(int invocation) {
+                customerId = randomCustomer();
+            }
+            
+            @Override
+            public Object run(int invocation) {
+                return system.getRecommendations(customerId, 5);
+            }
+        });
+        operations.put("getTopRatedProducts", i -> system.getTopRatedProducts(10));
+        operations.put("getBestSellingProducts", i -> system.getBestSellingProducts(10));
+        operations.put("getCategorySales", i -> system.getCategorySales());
+        
+        operations.put("placeOrder", new Operation() {
+            private String customerId;
+            
+            @Override
+            public void prepare(int invocation) {
+                customerId = fillCart();
+            }
+            
+            @Override
+            public Object run(int invocation) {
+                return system.placeOrder(customerId, "Credit Card");
+            }
+        });
+        
+        operations.put("cancelOrder", new Operation() {
+            @Override
+            public void prepare(int invocation) {
+                lastOrderId = system.placeOrder(fillCart(), "Credit Card").getOrder().getOrderId();
+            }
+            
+            @Override
+            public Object run(int invocation) {
+                return system.cancelOrder(lastOrderId);
+            }
+        });
+        
+        List<Order> orders = system.getAllOrders();
+        operations.put("encodeOrder", new Operation() {
+            private Order order;
+            
+            @Override
+            public void prepare(int invocation) {
+                order = orders.get(random.nextInt(orders.size()));
+            }
+            
+            @Override
+            public Object run(int invocation) {
+                BinaryCodec.Encoder out = new BinaryCodec.Encoder(256);
+                BinaryCodec.writeOrder(out, order);
+                return out.size();
+            }
+        });
+        
+        operations.put("decodeOrder", new Operation() {
+            private ByteBuffer encoded;
+            
+            @Override
+            public void prepare(int invocation) {
+                BinaryCodec.Encoder out = new BinaryCodec.Encoder(256);
+                BinaryCodec.writeOrder(out, orders.get(random.nextInt(orders.size())));
+                encoded = ByteBuffer.wrap(out.toByteArray());
+            }
+            
+            @Override
+            public Object run(int invocation) {
+                return BinaryCodec.readOrder(new BinaryCodec.Decoder(encoded), system::getProduct);
+            }
+        });
+        return operations;
+    }
+    
+    private String randomCustomer() {
+        return data.customerId(random.nextInt(data.getCustomerCount()));
+    }
+    
+    private String fillCart() {
+        String customerId = randomCustomer();
+        int lines = 1 + random.nextInt(3);
+        for (int line = 0; line < lines; line++) {
+            system.addToCart(customerId, data.productId(data.popularProduct(random)), 1);
+        }
+        return customerId;
+    }
+    
+    // Measurement
+    private Result measure(String name, Operation operation, double warmupSeconds,
+                           double measureSeconds) {
+        int invocation = 0;
+        long warmupEnd = System.nanoTime() + (long) (warmupSeconds * 1e9);
+        while (System.nanoTime() < warmupEnd) {
+            operation.prepare(invocation);
+            sink += Objects.hashCode(operation.run(invocation++));
+        }
+        
+        long[] latencies = new long[1 << 16];
+        int count = 0;
+        long timedNanos = 0;
+        long allocated = 0;
+        long allocationOverhead = allocatedBytes() - allocatedBytes();
+        long[] gcBefore = gcTotals();
+        long measureEnd = System.nanoTime() + (long) (measureSeconds * 1e9);
+        
+        while (System.nanoTime() < measureEnd) {
+            operation.prepare(invocation);
+            long bytesBefore = allocatedBytes();
+            long start = System.nanoTime();
+            Object value = operation.run(invocation++);
+            long elapsed = System.nanoTime() - start;
+            allocated += allocatedBytes() - bytesBefore + allocationOverhead;
+            sink += Objects.hashCode(value);
+            
+            if (count == latencies.length) {
+                latencies = Arrays.copyOf(latencies, count * 2);
+            }
+            latencies[count++] = elapsed;
+            timedNanos += elapsed;
+        }
+        long[] gcAfter = gcTotals();
+        
+        Result result = new Result();
+        result.name = name;
+        result.opsPerSecond = count / (timedNanos / 1e9);
+        Arrays.sort(latencies, 0, count);
+        result.percentilesNanos = new long[PERCENTILES.length];
+        for (int i = 0; i < PERCENTILES.length; i++) {
+            int index = (int) Math.ceil(PERCENTILES[i] * count) - 1;
+            result.percentilesNanos[i] = latencies[Math.max(0, Math.min(count - 1, index))];
+        }
+        result.bytesPerCall = allocations == null ? Double.NaN : (double) allocated / count;
+        result.gcCount = gcAfter[0] - gcBefore[0];
+        result.gcMillis = gcAfter[1] - gcBefore[1];
+        return result;
+    }
+    
+    private long allocatedBytes() {
+        return allocations == null ? 0 : allocations.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+    
+    private static long[] gcTotals() {
+        long count = 0;
+        long millis = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, gc.getCollectionCount());
+            millis += Math.max(0, gc.getCollectionTime());
+        }
+        return new long[] { count, millis };
+    }
+    
+    public List<Result> run(Set<String> only, double warmupSeconds, double measureSeconds) {
+        List<Result> results = new ArrayList<>();
+        for (Map.Entry<String, Operation> entry : operations().entrySet()) {
+            if (only.isEmpty() || only.contains(entry.getKey())) {
+                results.add(measure(entry.getKey(), entry.getValue(), warmupSeconds, measureSeconds));
+            }
+        }
+        return results;
+    }
+    
+    // Checkout throughput
+    private static void shardScaling(SyntheticData data, int maxShards, int clients, double warmupSeconds,
+                                     double measureSeconds) {
+        System.out.printf("%nCheckout throughput, %d clients%n", clients);
+        System.out.printf("%-24s %12s%n", "Store", "orders/s");
+        
+        ECommerceSystem single = new ECommerceSystem();
+        single.addProducts(data.newProducts());
+        single.addCustomers(data.newCustomers());
+        double rate = checkoutRate(data, clients, warmupSeconds, measureSeconds, (customerId, productIds) -> {
+            for (String productId : productIds) {
+                single.addToCart(customerId, productId, 1);
+            }
+            return single.placeOrder(customerId, "Credit Card");
+        });
+        System.out.printf("%-24s %12.0f%n", "ECommerceSystem", rate);
+        
+        for (int shards = 1; shards <= maxShards; shards *= 2) {
+            try (ShardedStore store = new ShardedStore(shards)) {
+                store.addProducts(data.newProducts());
+                store.addCustomers(data.newCustomers());
+                rate = checkoutRate(data, clients, warmupSeconds, measureSeconds, (customerId, productIds) -> {
+                    for (String productId : productIds) {
+                        store.addToCart(customerId, productId, 1);
+                    }
+                    return store.placeOrder(customerId, "Credit Card");
+                });
+            }
+            System.out.printf("%-24s %12.0f%n", "ShardedStore x" + shards, rate);
+        }
+    }
+    
+    /**
+     * Successful checkouts per second with each client filling one to three
+     * lines and checking out in a loop. Clients own disjoint customers, so
+     * no two of them ever share a cart.
+     */
+    private static double checkoutRate(SyntheticData data, int clients, double warmupSeconds,
+                                       double measureSeconds,
+                                       BiFunction<String, List<String>, ECommerceSystem.OrderResult> checkout) {
+        long measureStart = System.nanoTime() + (long) (warmupSeconds * 1e9);
+        long measureEnd = measureStart + (long) (measureSeconds * 1e9);
+        long[] placed = new long[clients];
+        Thread[] threads = new Thread[clients];
+        for (int c = 0; c < clients; c++) {
+            int client = c;
+            threads[c] = new Thread(() -> {
+                Random random = new Random(data.getSeed() + client);
+                int owned = Math.max(1, (data.getCustomerCount() - client + clients - 1) / clients);
+                List<String> productIds = new ArrayList<>(3);
+                while (System.nanoTime() < measureEnd) {
+                    String customerId = data.customerId(Math.min(data.getCustomerCount() - 1,
+                                                                 client + clients * random.nextInt(owned)));
+                    productIds.clear();
+                    int lines = 1 + random.nextInt(3);
+                    for (int line = 0; line < lines; line++) {
+                        productIds.add(data.productId(data.popularProduct(random)));
+                    }
+                    boolean success = checkout.apply(customerId, productIds).isSuccess();
+                    if (success && System.nanoTime() >= measureStart) {
+                        placed[client]++;
+                    }
+                }
+            }, "client-" + c);
+            threads[c].start();
+        }
+        
+        long total = 0;
+        for (int c = 0; c < clients; c++) {
+            try {
+                threads[c].join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return Double.NaN;
+            }
+            total += placed[c];
+        }
+        return total / measureSeconds;
+    }
+    
+    // Codec round trip
+    /**
+     * Journals a small generated store to a temporary directory, then
+     * checks every product, review and order against a direct encode and
+     * decode and against a fresh store recovered from the log. Timestamps
+     * are compared at the codec's millisecond precision.
+     */
+    private static void verifyRoundTrip(long seed) throws IOException {
+        Path directory = Files.createTempDirectory("codec-check");
+        try {
+            ECommerceSystem original = new ECommerceSystem();
+            original.enablePersistence(directory, null);
+            new SyntheticData(100, 40, 150, 2, seed).populate(original);
+            placeBatchBesideCart(original);
+            original.closePersistence();
+            List<Product> products = original.getAllProducts();
+            List<Customer> customers = original.getAllCustomers();
+            List<Order> orders = original.getAllOrders();
+            
+            BinaryCodec.Encoder out = new BinaryCodec.Encoder(1 << 16);
+            int reviews = 0;
+            for (Product product : products) {
+                BinaryCodec.writeProduct(out, product);
+                out.writeVarInt(product.getReviews().size());
+                for (Review review : product.getReviews()) {
+                    BinaryCodec.writeReview(out, review);
+                    reviews++;
+                }
+            }
+            for (Order order : orders) {
+                BinaryCodec.writeOrder(out, order);
+            }
+            BinaryCodec.Decoder in = new BinaryCodec.Decoder(ByteBuffer.wrap(out.toByteArray()));
+            for (Product product : products) {
+                check("product", describe(product), describe(BinaryCodec.readProduct(in)));
+                int count = in.readVarInt();
+                List<Review> decoded = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    decoded.add(BinaryCodec.readReview(in));
+                }
+                check("reviews of " + product.getProductId(), describe(product.getReviews()), describe(decoded));
+            }
+            for (Order order : orders) {
+                check("order", describe(order), describe(BinaryCodec.readOrder(in, original::getProduct)));
+            }
+            
+            ECommerceSystem recovered = new ECommerceSystem();
+            recovered.enablePersistence(directory, null);
+            recovered.closePersistence();
+            check("recovered product count", String.valueOf(products.size()),
+                  String.valueOf(recovered.getAllProducts().size()));
+            check("recovered order count", String.valueOf(orders.size()),
+                  String.valueOf(recovered.getOrderCount()));
+            for (Product product : products) {
+                Product copy = recovered.getProduct(product.getProductId());
+                check("recovered product", describe(product), copy == null ? "missing" : describe(copy));
+                check("recovered reviews of " + product.getProductId(), describe(product.getReviews()),
+                      copy == null ? "missing" : describe(copy.getReviews()));
+            }
+            for (Order order : orders) {
+                Order copy = recovered.getOrder(order.getOrderId());
+                check("recovered order", describe(order), copy == null ? "missing" : describe(copy));
+            }
+            for (Customer customer : customers) {
+                Customer copy = recovered.getCustomer(customer.getCustomerId());
+                check("recovered cart of " + customer.getCustomerId(), describe(customer.getCart()),
+                      copy == null ? "missing" : describe(copy.getCart()));
+            }
+            System.out.printf("Codec round trip OK: %d products, %d reviews, %d orders%n%n",
+                              products.size(), reviews, orders.size());
+        } finally {
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+                for (Path file : files) {
+                    Files.delete(file);
+                }
+            }
+            Files.delete(directory);
+        }
+    }
+    
+    /**
+     * Leaves a line in a customer's cart and places a batch order for the
+     * same customer, so recovery must replay the order without touching
+     * the cart.
+     */
+    private static void placeBatchBesideCart(ECommerceSystem system) {
+        Customer customer = system.getAllCustomers().get(0);
+        List<Product> inStock = new ArrayList<>();
+        for (Product product : system.getAllProducts()) {
+            if (product.getAvailableQuantity() >= 2) {
+                inStock.add(product);
+            }
+        }
+        if (inStock.size() < 2) {
+            throw new IllegalStateException("Codec round trip needs two products in stock");
+        }
+        if (!system.addToCart(customer.getCustomerId(), inStock.get(0).getProductId(), 1)) {
+            throw new IllegalStateException("Codec round trip could not fill a cart");
+        }
+        ECommerceSystem.OrderResult result = system.placeOrders(List.of(new ECommerceSystem.OrderRequest(
+            customer.getCustomerId(), Map.of(inStock.get(1).getProductId(), 1), "Credit Card"))).get(0);
+        if (!result.isSuccess()) {
+            throw new IllegalStateException("Codec round trip batch order failed: " + result.getMessage());
+        }
+    }
+    
+    private static void check(String what, String expected, String actual) {
+        if (!expected.equals(actual)) {
+            throw new IllegalStateException("Codec round trip changed " + what +
+                                            ":\n  before: " + expected + "\n  after:  " + actual);
+        }
+    }
+    
+    private static String describe(Product p) {
+        return String.join("|", p.getProductId(), p.getName(), p.getCategory(), p.getDescription(),
+                           String.valueOf(p.getPrice()), String.valueOf(p.getStockQuantity()),
+                           p.getSellerId(), String.valueOf(p.getLowStockThreshold()));
+    }
+    
+    private static String describe(List<Review> reviews) {
+        StringBuilder sb = new StringBuilder();
+        for (Review r : reviews) {
+            sb.append(String.join("|", r.getCustomerId(), r.getCustomerName(),
+                                  String.valueOf(r.getRating()), r.getComment(),
+                                  String.valueOf(r.isVerified()), millis(r.getReviewDate())))
+              .append(';');
+        }
+        return sb.toString();
+    }
+    
+    private static String describe(Order o) {
+        if (o == null) {
+            return "unresolved";
+        }
+        StringBuilder sb = new StringBuilder(String.join("|", o.getOrderId(), o.getCustomerId(),
+            String.valueOf(o.getTotalAmount()), o.getStatus().name(), millis(o.getOrderDate()),
+            millis(o.getDeliveryDate()), millis(o.getLastStatusChange()),
+            o.getShippingAddress(), o.getPaymentMethod()));
+        for (int line = 0; line < o.getLineCount(); line++) {
+            sb.append('|').append(o.getLineProduct(line).getProductId())
+              .append('x').append(o.getLineQuantity(line))
+              .append('@').append(o.getLineUnitPrice(line));
+        }
+        return sb.append('|').append(o.getStatusHistory()).toString();
+    }
+    
+    private static String describe(ShoppingCart cart) {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<Product, Integer> entry : cart.getItems().entrySet()) {
+            sb.append(entry.getKey().getProductId()).append('x').append(entry.getValue()).append(';');
+        }
+        return sb.toString();
+    }
+    
+    private static String millis(LocalDateTime time) {
+        return time == null ? "-" : time.truncatedTo(ChronoUnit.MILLIS).toString();
+    }
+    
+    private static void print(List<Result> results) {
+        System.out.printf("%-24s %12s %10s %10s %10s %10s %10s %12s %6s %8s%n",
+                          "Operation", "ops/s", "p50 us", "p90 us", "p99 us", "p99.9 us",
+                          "max us", "B/op", "GCs", "GC ms");
+        for (Result r : results) {
+            System.out.printf("%-24s %12.0f %10.1f %10.1f %10.1f %10.1f %10.1f %12.0f %6d %8d%n",
+                              r.name, r.opsPerSecond,
+                              r.percentilesNanos[0] / 1e3, r.percentilesNanos[1] / 1e3,
+                              r.percentilesNanos[2] / 1e3, r.percentilesNanos[3] / 1e3,
+                              r.percentilesNanos[4] / 1e3, r.bytesPerCall, r.gcCount, r.gcMillis);
+        }
+    }
+    
+    public static void main(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            options.put(args[i].replaceFirst("^--", ""), args[i + 1]);
+        }
+        
+        SyntheticData data = new SyntheticData(
+            Integer.parseInt(options.getOrDefault("products", "10000")),
+            Integer.parseInt(options.getOrDefault("customers", "2000")),
+            Integer.parseInt(options.getOrDefault("orders", "20000")),
+            Integer.parseInt(options.getOrDefault("reviews", "3")),
+            Long.parseLong(options.getOrDefault("seed", "42")));
+        double warmup = Double.parseDouble(options.getOrDefault("warmup", "2"));
+        double measure = Double.parseDouble(options.getOrDefault("measure", "5"));
+        Set<String> only = new HashSet<>();
+        if (options.containsKey("only")) {
+            only.addAll(Arrays.asList(options.get("only").split(",")));
+        }
+        
+        if (Boolean.parseBoolean(options.getOrDefault("verify", "true"))) {
+            try {
+                verifyRoundTrip(data.getSeed());
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        
+        System.out.println("Generating " + data + "...");
+        long start = System.nanoTime();
+        ECommerceSystem system = data.populate(new ECommerceSystem());
+        System.out.printf("Generated in %.1fs%n%n", (System.nanoTime() - start) / 1e9);
+        system.getMetrics().setEnabled(Boolean.parseBoolean(options.getOrDefault("metrics", "false")));
+        
+        print(new StoreBenchmark(system, data).run(only, warmup, measure));
+        
+        if (options.containsKey("shards")) {
+            int clients = Integer.parseInt(options.getOrDefault("clients",
+                String.valueOf(Math.max(4, 2 * Runtime.getRuntime().availableProcessors()))));
+            shardScaling(data, Integer.parseInt(options.get("shards")), clients, warmup, measure);
+        }
+    }
+}
@@ -0,0 +1,207 @@
+import java.io.PrintStream;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * StoreMetrics - Call counts, latency histograms and checkout outcomes
+ * ECommerceSystem reports into this on its hot paths. Off by default: a
+ * disabled instance costs each call one volatile read and no clock reads.
+ * Callers take a token from start() before the work and hand it back to
+ * record() after; a zero token means the call wasn't being measured.
+ */
+public class StoreMetrics {
+    
+    public enum Operation {
+        PLACE_ORDER, PLACE_ORDERS, CANCEL_ORDER, ADD_TO_CART, SEARCH, AUTOCOMPLETE,
+        RECOMMENDATIONS, TOP_RATED, BEST_SELLERS, CATEGORY_SALES, SALES_REPORT
+    }
+    
+    private static final String STOCK_FAILURE = "Insufficient stock";
+    
+    private volatile boolean enabled;
+    private final Histogram[] latencies;
+    private final LongAdder checkoutsSucceeded;
+    private final LongAdder checkoutsFailed;
+    private final Map<String, LongAdder> failureReasons;
+    private final LongAdder stockCheckFailures;
+    private final LongAdder stockOuts;
+    private final Histogram cartSizes;
+    private ScheduledExecutorService dumper;
+    
+    public StoreMetrics() {
+        this.latencies = new Histogram[Operation.values().length];
+        for (int i = 0; i < latencies.length; i++) {
+            latencies[i] = new Histogram();
+        }
+        this.checkoutsSucceeded = new LongAdder();
+        this.checkoutsFailed = new LongAdder();
+        this.failureReasons = new ConcurrentHashMap<>();
+        this.stockCheckFailures = new LongAdder();
+        this.stockOuts = new LongAdder();
+        this.cartSizes = new Histogram();
+    }
+    
+    public boolean isEnabled() {
+        return enabled;
+    }
+    
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+    
+    // Recording
+    /**
+     * A token for record(), or 0 when metrics are off.
+     */
+    public long start() {
+        return enabled ? System.nanoTime() | 1 : 0;
+    }
+    
+    public void record(Operation operation, long start) {
+        if (start != 0) {
+            latencies[operation.ordinal()].record(System.nanoTime() - start);
+        }
+    }
+    
+    /**
+     * Counts a checkout's outcome. Failures are grouped by the text of
+     * their message before any ":", so per-product messages share a reason.
+     */
+    public void recordCheckout(ECommerceSystem.OrderResult result) {
+        if (!enabled) {
+            return;
+        }
+        if (result.isSuccess()) {
+            checkoutsSucceeded.increment();
+            cartSizes.record(result.getOrder().getTotalItems());
+            return;
+        }
+        
+        checkoutsFailed.increment();
+        String message = result.getMessage();
+        int colon = message.indexOf(':');
+        String reason = colon < 0 ? message : message.substring(0, colon);
+        failureReasons.computeIfAbsent(reason, r -> new LongAdder()).increment();
+        if (reason.startsWith(STOCK_FAILURE)) {
+            stockCheckFailures.increment();
+        }
+    }
+    
+    /**
+     * A cart add refused because the stock wasn't free.
+     */
+    public void recordStockCheckFailure() {
+        if (enabled) {
+            stockCheckFailures.increment();
+        }
+    }
+    
+    /**
+     * A product's stock just reached zero.
+     */
+    public void recordStockOut() {
+        if (enabled) {
+            stockOuts.increment();
+        }
+    }
+    
+    // Reading
+    public Histogram getLatency(Operation operation) {
+        return latencies[operation.ordinal()];
+    }
+    
+    public long getCheckoutsSucceeded() { return checkoutsSucceeded.sum(); }
+    public long getCheckoutsFailed() { return checkoutsFailed.sum(); }
+    public long getStockCheckFailures() { return stockCheckFailures.sum(); }
+    public long getStockOuts() { return stockOuts.sum(); }
+    public Histogram getCartSizes() { return cartSizes; }
+    
+    public Map<String, Long> getFailureReasons() {
+        Map<String, Long> reasons = new TreeMap<>();
+        for (Map.Entry<String, LongAdder> entry : failureReasons.entrySet()) {
+            reasons.put(entry.getKey(), entry.getValue().sum());
+        }
+        return reasons;
+    }
+    
+    public void reset() {
+        for (Histogram histogram : latencies) {
+            histogram.reset();
+        }
+        checkoutsSucceeded.reset();
+        checkoutsFailed.reset();
+        failureReasons.clear();
+        stockCheckFailures.reset();
+        stockOuts.reset();
+        cartSizes.reset();
+    }
+    
+    /**
+     * Plain-text table of everything recorded so far, latencies in
+     * microseconds.
+     */
+    public String report() {
+        StringBuilder out = new StringBuilder();
+        out.append(String.format("Metrics at %s (%s)%n", LocalDateTime.now().withNano(0),
+                                 enabled ? "enabled" : "disabled"));
+        out.append(String.format("%-16s %10s %10s %10s %10s %10s %10s%n",
+                                 "Operation", "calls", "mean us", "p50 us", "p90 us", "p99 us", "max us"));
+        for (Operation operation : Operation.values()) {
+            Histogram histogram = getLatency(operation);
+            if (histogram.getCount() == 0) {
+                continue;
+            }
+            out.append(String.format("%-16s %10d %10.1f %10.1f %10.1f %10.1f %10.1f%n",
+                                     operation, histogram.getCount(), histogram.getMean() / 1e3,
+                                     histogram.getPercentile(0.5) / 1e3,
+                                     histogram.getPercentile(0.9) / 1e3,
+                                     histogram.getPercentile(0.99) / 1e3,
+                                     histogram.getMax() / 1e3));
+        }
+        
+        out.append(String.format("Checkouts: %d succeeded, %d failed%n",
+                                 getCheckoutsSucceeded(), getCheckoutsFailed()));
+        for (Map.Entry<String, Long> entry : getFailureReasons().entrySet()) {
+            out.append(String.format("  %-40s %d%n", entry.getKey(), entry.getValue()));
+        }
+        out.append(String.format("Stock check failures: %d, stock-outs: %d%n",
+                                 getStockCheckFailures(), getStockOuts()));
+        if (cartSizes.getCount() > 0) {
+            out.append(String.format("Items per order: mean %.1f, p50 %d, p90 %d, max %d%n",
+                                     cartSizes.getMean(), cartSizes.getPercentile(0.5),
+                                     cartSizes.getPercentile(0.9), cartSizes.getMax()));
+        }
+        return out.toString();
+    }
+    
+    // Periodic dump
+    /**
+     * Writes the report to the stream every interval until stopped.
+     */
+    public synchronized void startDump(Duration interval, PrintStream out) {
+        stopDump();
+        dumper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "metrics-dump");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long millis = Math.max(1, interval.toMillis());
+        dumper.scheduleAtFixedRate(() -> {
+            out.println(report());
+            out.flush();
+        }, millis, millis, TimeUnit.MILLISECONDS);
+    }
+    
+    public synchronized void stopDump() {
+        if (dumper != null) {
+            dumper.shutdownNow();
+            dumper = null;
+        }
+    }
+}
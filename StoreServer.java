@@ -0,0 +1,692 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * StoreServer - HTTP/JSON front end over an ECommerceSystem
+ * Serves browsing, search, carts, checkout, order tracking and the admin
+ * reports on the JDK's built-in HttpServer. Each request runs on its own
+ * virtual thread when the JDK has them (21+), otherwise on a cached pool.
+ * The server shares the system it is given, so the console menu and HTTP
+ * clients can work on the same store at once. Listings are paged: they
+ * return {items, nextCursor}, and nextCursor goes back as ?cursor= for the
+ * next page.
+ *
+ * There is no authentication, so by default the server only listens on
+ * the loopback interface; binding anywhere else has to be asked for.
+ *
+ * Routes:
+ *   GET    /products?sort=id|price|rating&order=asc|desc&category=&inStock=&cursor=&limit=
+ *   GET    /products/{id}                      GET  /orders?status=&cursor=&limit=
+ *   GET    /search?q=&mode=all|any             GET  /top-rated?limit=
+ *   GET    /facets?q=&category=&price=50-100&minRating=4&inStock=true&limit=
+ *   GET    /autocomplete?q=&limit=
+ *   GET    /customers/{id}/cart                POST /customers/{id}/cart {productId, quantity}
+ *   DELETE /customers/{id}/cart/{productId}    POST /customers/{id}/checkout {paymentMethod}
+ *   GET    /customers/{id}/orders?cursor=      GET  /customers/{id}/recommendations?limit=
+ *   POST   /customers/{id}/reviews {productId, rating, comment}
+ *   GET    /orders/{id}                        POST /orders/{id}/status {status}
+ *   POST   /orders/{id}/cancel
+ *   GET    /admin/report?hours=24              GET  /admin/low-stock
+ *   GET    /admin/out-of-stock
+ *   GET    /admin/metrics                      POST /admin/metrics {enabled, reset}
+ */
+public class StoreServer {
+    
+    private static final int DEFAULT_LIMIT = 20;
+    private static final int MAX_LIMIT = 100;
+    private static final int MAX_REPORT_HOURS = 365 * 24; // the sales rollup keeps a year
+    private static final int MAX_BODY_BYTES = 64 * 1024;
+    
+    private final ECommerceSystem system;
+    private final HttpServer server;
+    private final ExecutorService executor;
+    
+    public StoreServer(ECommerceSystem system, int port) throws IOException {
+        this(system, InetAddress.getLoopbackAddress(), port);
+    }
+    
+    /**
+     * Listens on the given interface; pass the wildcard address (0.0.0.0)
+     * to accept connections from other machines.
+     */
+    public StoreServer(ECommerceSystem system, InetAddress bindAddress, int port) throws IOException {
+        this.system = system;
+        this.server = HttpServer.create(new InetSocketAddress(bindAddress, port), 0);
+        this.executor = newRequestExecutor();
+        server.createContext("/", this::handle);
+        server.setExecutor(executor);
+    }
+    
+    /**
+     * A virtual thread per request when the running JDK supports it. Looked
+     * up reflectively so the code still compiles and runs on older JDKs.
+     */
+    static ExecutorService newRequestExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return Executors.newCachedThreadPool(task -> {
+                Thread thread = new Thread(task, "http-worker");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+    
+    public void start() {
+        server.start();
+    }
+    
+    public void stop() {
+        server.stop(0);
+        executor.shutdown();
+    }
+    
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+    
+    // Dispatch
+    private void handle(HttpExchange exchange) throws IOException {
+        int status = 200;
+        String body;
+        try {
+            body = route(exchange);
+        } catch (RequestException e) {
+            status = e.status;
+            body = new Json().beginObject().field("error", e.getMessage()).endObject().toString();
+        } catch (IllegalArgumentException e) {
+            // Bad cursors and limits from the paged listings
+            status = 400;
+            body = new Json().beginObject().field("error", e.getMessage()).endObject().toString();
+        } catch (RuntimeException e) {
+            status = 500;
+            body = new Json().beginObject().field("error", e.toString()).endObject().toString();
+        }
+        
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+    
+    private String route(HttpExchange exchange) throws IOException {
+        String method = exchange.getRequestMethod();
+        String[] path = exchange.getRequestURI().getPath().replaceAll("^/+|/+$", "").split("/+");
+        Map<String, String> query = parseQuery(exchange.getRequestURI().getRawQuery());
+        String resource = path[0];
+        
+        switch (resource) {
+            case "products":
+                requireMethod(method, "GET");
+                return path.length == 1 ? listProducts(query) : productDetails(path[1]);
+            case "search":
+                requireMethod(method, "GET");
+                return search(query);
+            case "autocomplete":
+                requireMethod(method, "GET");
+                return autocomplete(query);
+            case "facets":
+                requireMethod(method, "GET");
+                return facets(query);
+            case "top-rated":
+                requireMethod(method, "GET");
+                return productList(system.getTopRatedProducts(limit(query)));
+            case "customers":
+                if (path.length < 3) {
+                    throw new RequestException(404, "Unknown resource");
+                }
+                return customerRoute(exchange, method, path, query);
+            case "orders":
+                if (path.length < 2) {
+                    requireMethod(method, "GET");
+                    return listOrders(query);
+                }
+                return orderRoute(exchange, method, path);
+            case "admin":
+                if (path.length == 2 && path[1].equals("metrics")) {
+                    return metrics(exchange, method);
+                }
+                requireMethod(method, "GET");
+                if (path.length == 2 && path[1].equals("report")) {
+                    return report(query);
+                }
+                if (path.length == 2 && path[1].equals("low-stock")) {
+                    return productList(system.getLowStockProducts());
+                }
+                if (path.length == 2 && path[1].equals("out-of-stock")) {
+                    return productList(system.getOutOfStockProducts());
+                }
+                throw new RequestException(404, "Unknown resource");
+            default:
+                throw new RequestException(404, "Unknown resource");
+        }
+    }
+    
+    private String customerRoute(HttpExchange exchange, String method, String[] path,
+                                 Map<String, String> query) throws IOException {
+        String customerId = path[1];
+        if (system.getCustomer(customerId) == null) {
+            throw new RequestException(404, "Customer not found");
+        }
+        
+        switch (path[2]) {
+            case "cart":
+                if (method.equals("GET")) {
+                    return cart(customerId);
+                }
+                if (method.equals("POST")) {
+                    Map<String, String> body = readBody(exchange);
+                    String productId = required(body, "productId");
+                    int quantity = parseInt(body.getOrDefault("quantity", "1"), "quantity");
+                    if (!system.addToCart(customerId, productId, quantity)) {
+                        throw new RequestException(409, "Could not add " + productId + " to cart");
+                    }
+                    return cart(customerId);
+                }
+                if (method.equals("DELETE") && path.length == 4) {
+                    if (!system.removeFromCart(customerId, path[3])) {
+                        throw new RequestException(404, "Item not in cart");
+                    }
+                    return cart(customerId);
+                }
+                throw new RequestException(405, "Method not allowed");
+            case "checkout": {
+                requireMethod(method, "POST");
+                Map<String, String> body = readBody(exchange);
+                ECommerceSystem.OrderResult result =
+                    system.placeOrder(customerId, body.getOrDefault("paymentMethod", "Credit Card"));
+                if (!result.isSuccess()) {
+                    throw new RequestException(409, result.getMessage());
+                }
+                return order(new Json(), result.getOrder()).toString();
+            }
+            case "orders":
+                requireMethod(method, "GET");
+                return orderPage(system.getCustomer(customerId)
+                                       .getOrderHistory(query.get("cursor"), limit(query)));
+            case "recommendations":
+                requireMethod(method, "GET");
+                return productList(system.getRecommendations(customerId, limit(query)));
+            case "reviews": {
+                requireMethod(method, "POST");
+                Map<String, String> body = readBody(exchange);
+                String productId = required(body, "productId");
+                int rating = parseInt(required(body, "rating"), "rating");
+                if (!system.addReview(customerId, productId, rating, body.getOrDefault("comment", ""))) {
+                    throw new RequestException(409, "Could not add review");
+                }
+                return productDetails(productId);
+            }
+            default:
+                throw new RequestException(404, "Unknown resource");
+        }
+    }
+    
+    private String orderRoute(HttpExchange exchange, String method, String[] path)
+            throws IOException {
+        Order order = system.getOrder(path[1].toUpperCase());
+        if (order == null) {
+            throw new RequestException(404, "Order not found");
+        }
+        
+        if (path.length == 2) {
+            requireMethod(method, "GET");
+            return order(new Json(), order).toString();
+        }
+        requireMethod(method, "POST");
+        boolean changed;
+        if (path[2].equals("cancel")) {
+            changed = system.cancelOrder(order.getOrderId());
+        } else if (path[2].equals("status")) {
+            Order.OrderStatus status;
+            try {
+                status = Order.OrderStatus.valueOf(required(readBody(exchange), "status").toUpperCase());
+            } catch (IllegalArgumentException e) {
+                throw new RequestException(400, "Unknown status");
+            }
+            changed = system.updateOrderStatus(order.getOrderId(), status);
+        } else {
+            throw new RequestException(404, "Unknown resource");
+        }
+        if (!changed) {
+            throw new RequestException(409, "Order is " + order.getStatus());
+        }
+        return order(new Json(), order).toString();
+    }
+    
+    // Handlers
+    private String listProducts(Map<String, String> query) {
+        ECommerceSystem.ProductSort sort;
+        try {
+            sort = ECommerceSystem.ProductSort.valueOf(query.getOrDefault("sort", "id").toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new RequestException(400, "Unknown sort");
+        }
+        boolean descending = "desc".equalsIgnoreCase(query.get("order"));
+        Page<Product> page = system.listProducts(sort, descending, query.get("category"),
+                                                 Boolean.parseBoolean(query.get("inStock")),
+                                                 query.get("cursor"), limit(query));
+        
+        Json json = new Json().beginObject().key("items").beginArray();
+        for (Product product : page.getItems()) {
+            json.beginObject();
+            productFields(json, product);
+            json.endObject();
+        }
+        return json.endArray().field("nextCursor", page.getNextCursor()).endObject().toString();
+    }
+    
+    private String listOrders(Map<String, String> query) {
+        Order.OrderStatus status = null;
+        if (query.containsKey("status")) {
+            try {
+                status = Order.OrderStatus.valueOf(query.get("status").toUpperCase());
+            } catch (IllegalArgumentException e) {
+                throw new RequestException(400, "Unknown status");
+            }
+        }
+        return orderPage(system.listOrders(status, true, query.get("cursor"), limit(query)));
+    }
+    
+    private String productDetails(String productId) {
+        Product product = system.getProduct(productId);
+        if (product == null) {
+            throw new RequestException(404, "Product not found");
+        }
+        
+        Json json = new Json().beginObject();
+        productFields(json, product);
+        json.key("reviews").beginArray();
+        for (Review review : product.getReviews()) {
+            json.beginObject()
+                .field("customerName", review.getCustomerName())
+                .field("rating", review.getRating())
+                .field("comment", review.getComment())
+                .field("verified", review.isVerified())
+                .field("date", review.getReviewDate().toString())
+                .endObject();
+        }
+        return json.endArray().endObject().toString();
+    }
+    
+    private String search(Map<String, String> query) {
+        String q = query.get("q");
+        if (q == null || q.isBlank()) {
+            throw new RequestException(400, "Missing q");
+        }
+        SearchIndex.MatchMode mode = "any".equalsIgnoreCase(query.get("mode")) ?
+            SearchIndex.MatchMode.ANY : SearchIndex.MatchMode.ALL;
+        List<Product> results = system.searchProducts(q, mode);
+        int limit = limit(query);
+        return productList(results.size() > limit ? results.subList(0, limit) : results);
+    }
+    
+    private String autocomplete(Map<String, String> query) {
+        Json json = new Json().beginArray();
+        for (Autocomplete.Suggestion suggestion : system.autocomplete(query.getOrDefault("q", ""), limit(query))) {
+            json.beginObject()
+                .field("text", suggestion.getText())
+                .field("productId", suggestion.getProductId())
+                .field("category", suggestion.isCategory())
+                .field("edits", suggestion.getEdits())
+                .endObject();
+        }
+        return json.endArray().toString();
+    }
+    
+    private String facets(Map<String, String> query) {
+        FacetIndex.Query filters = new FacetIndex.Query()
+            .category(query.get("category"))
+            .minRating(query.containsKey("minRating") ? parseInt(query.get("minRating"), "minRating") : 0)
+            .inStockOnly(Boolean.parseBoolean(query.get("inStock")))
+            .limit(limit(query));
+        if (query.containsKey("price")) {
+            int band = 0;
+            while (band < FacetIndex.priceBandCount() &&
+                   !FacetIndex.priceBandLabel(band).equals(query.get("price"))) {
+                band++;
+            }
+            if (band == FacetIndex.priceBandCount()) {
+                throw new RequestException(400, "Unknown price band");
+            }
+            filters.priceBand(band);
+        }
+        FacetIndex.Result result = system.searchFacets(query.get("q"), filters);
+        
+        Json json = new Json().beginObject().field("total", result.getTotal()).key("items").beginArray();
+        for (Product product : result.getProducts()) {
+            json.beginObject();
+            productFields(json, product);
+            json.endObject();
+        }
+        json.endArray().key("facets").beginObject();
+        facetCounts(json, "category", result.getByCategory());
+        facetCounts(json, "price", result.getByPriceBand());
+        facetCounts(json, "minRating", result.getByMinRating());
+        return json.field("inStock", result.getInStock()).endObject().endObject().toString();
+    }
+    
+    private static void facetCounts(Json json, String name, Map<String, Integer> counts) {
+        json.key(name).beginObject();
+        for (Map.Entry<String, Integer> entry : counts.entrySet()) {
+            json.field(entry.getKey(), entry.getValue());
+        }
+        json.endObject();
+    }
+    
+    private String cart(String customerId) {
+        ShoppingCart cart = system.getCustomer(customerId).getCart();
+        Json json = new Json().beginObject().key("items").beginArray();
+        synchronized (cart) {
+            for (Map.Entry<Product, Integer> entry : cart.getItems().entrySet()) {
+                json.beginObject()
+                    .field("productId", entry.getKey().getProductId())
+                    .field("name", entry.getKey().getName())
+                    .field("price", entry.getKey().getPrice())
+                    .field("quantity", entry.getValue())
+                    .endObject();
+            }
+            json.endArray()
+                .field("subtotal", cart.getSubtotal())
+                .field("discount", cart.getDiscountAmount())
+                .field("total", cart.getTotal());
+        }
+        return json.endObject().toString();
+    }
+    
+    private String report(Map<String, String> query) {
+        int hours = parseInt(query.getOrDefault("hours", "24"), "hours");
+        if (hours <= 0) {
+            throw new RequestException(400, "hours must be positive");
+        }
+        if (hours > MAX_REPORT_HOURS) {
+            throw new RequestException(400, "hours must be at most " + MAX_REPORT_HOURS);
+        }
+        Duration window = Duration.ofHours(hours);
+        SalesRollup.Totals totals = system.getSalesTotals(window);
+        
+        Json json = new Json().beginObject()
+            .field("totalRevenue", system.getTotalRevenue())
+            .field("totalOrders", system.getOrderCount())
+            .field("inventoryValue", system.getInventoryValue());
+        json.key("unitsByCategory").beginObject();
+        for (Map.Entry<String, Integer> entry : system.getCategorySales().entrySet()) {
+            json.field(entry.getKey(), entry.getValue());
+        }
+        json.endObject();
+        
+        json.key("window").beginObject()
+            .field("hours", hours)
+            .field("orders", totals.getOrders())
+            .field("units", totals.getUnits())
+            .field("revenue", totals.getRevenue());
+        json.key("revenueByCategory").beginObject();
+        for (Map.Entry<String, Double> entry : system.getRevenueByCategory(window).entrySet()) {
+            json.field(entry.getKey(), entry.getValue());
+        }
+        json.endObject().endObject();
+        
+        json.key("bestSellers").beginArray();
+        for (Product product : system.getBestSellingProducts(5)) {
+            json.beginObject();
+            productFields(json, product);
+            json.endObject();
+        }
+        return json.endArray().endObject().toString();
+    }
+    
+    private String metrics(HttpExchange exchange, String method) throws IOException {
+        StoreMetrics metrics = system.getMetrics();
+        if (method.equals("POST")) {
+            Map<String, String> body = readBody(exchange);
+            if (body.containsKey("enabled")) {
+                metrics.setEnabled(Boolean.parseBoolean(body.get("enabled")));
+            }
+            if (Boolean.parseBoolean(body.get("reset"))) {
+                metrics.reset();
+            }
+        } else {
+            requireMethod(method, "GET");
+        }
+        
+        Json json = new Json().beginObject().field("enabled", metrics.isEnabled());
+        json.key("latencyMicros").beginObject();
+        for (StoreMetrics.Operation operation : StoreMetrics.Operation.values()) {
+            Histogram histogram = metrics.getLatency(operation);
+            json.key(operation.name()).beginObject()
+                .field("calls", histogram.getCount())
+                .field("mean", histogram.getMean() / 1e3)
+                .field("p50", histogram.getPercentile(0.5) / 1e3)
+                .field("p90", histogram.getPercentile(0.9) / 1e3)
+                .field("p99", histogram.getPercentile(0.99) / 1e3)
+                .field("max", histogram.getMax() / 1e3)
+                .endObject();
+        }
+        json.endObject();
+        
+        json.field("checkoutsSucceeded", metrics.getCheckoutsSucceeded())
+            .field("checkoutsFailed", metrics.getCheckoutsFailed());
+        json.key("failureReasons").beginObject();
+        for (Map.Entry<String, Long> entry : metrics.getFailureReasons().entrySet()) {
+            json.field(entry.getKey(), entry.getValue());
+        }
+        json.endObject();
+        
+        Histogram cartSizes = metrics.getCartSizes();
+        return json.field("stockCheckFailures", metrics.getStockCheckFailures())
+            .field("stockOuts", metrics.getStockOuts())
+            .key("itemsPerOrder").beginObject()
+            .field("mean", cartSizes.getMean())
+            .field("p50", cartSizes.getPercentile(0.5))
+            .field("p90", cartSizes.getPercentile(0.9))
+            .field("max", cartSizes.getMax())
+            .endObject()
+            .endObject().toString();
+    }
+    
+    // JSON output
+    private static String productList(List<Product> products) {
+        Json json = new Json().beginArray();
+        for (Product product : products) {
+            json.beginObject();
+            productFields(json, product);
+            json.endObject();
+        }
+        return json.endArray().toString();
+    }
+    
+    private static void productFields(Json json, Product product) {
+        json.field("productId", product.getProductId())
+            .field("name", product.getName())
+            .field("category", product.getCategory())
+            .field("description", product.getDescription())
+            .field("price", product.getPrice())
+            .field("available", product.getAvailableQuantity())
+            .field("averageRating", product.getAverageRating())
+            .field("reviewCount", product.getTotalReviews());
+    }
+    
+    private static String orderPage(Page<Order> page) {
+        Json json = new Json().beginObject().key("items").beginArray();
+        for (Order order : page.getItems()) {
+            order(json, order);
+        }
+        return json.endArray().field("nextCursor", page.getNextCursor()).endObject().toString();
+    }
+    
+    private static Json order(Json json, Order order) {
+        json.beginObject()
+            .field("orderId", order.getOrderId())
+            .field("customerId", order.getCustomerId())
+            .field("status", order.getStatus().name())
+            .field("total", order.getTotalAmount())
+            .field("orderDate", order.getOrderDate().toString())
+            .field("paymentMethod", order.getPaymentMethod());
+        json.key("items").beginArray();
+        for (int line = 0; line < order.getLineCount(); line++) {
+            json.beginObject()
+                .field("productId", order.getLineProduct(line).getProductId())
+                .field("quantity", order.getLineQuantity(line))
+                .field("unitPrice", order.getLineUnitPrice(line))
+                .endObject();
+        }
+        json.endArray();
+        json.key("history").beginArray();
+        for (String entry : order.getStatusHistory()) {
+            json.value(entry);
+        }
+        return json.endArray().endObject();
+    }
+    
+    /**
+     * Minimal streaming JSON writer; tracks only whether a comma is due.
+     */
+    private static class Json {
+        private final StringBuilder out = new StringBuilder();
+        private boolean needComma;
+        
+        Json beginObject() { separate(); out.append('{'); needComma = false; return this; }
+        Json endObject() { out.append('}'); needComma = true; return this; }
+        Json beginArray() { separate(); out.append('['); needComma = false; return this; }
+        Json endArray() { out.append(']'); needComma = true; return this; }
+        
+        Json key(String name) {
+            separate();
+            CatalogTransfer.appendJsonString(out, name);
+            out.append(':');
+            needComma = false;
+            return this;
+        }
+        
+        Json field(String name, Object value) {
+            return key(name).value(value);
+        }
+        
+        Json value(Object value) {
+            separate();
+            if (value == null) {
+                out.append("null");
+            } else if (value instanceof Double) {
+                double number = (Double) value;
+                out.append(Double.isFinite(number) ? String.valueOf(Math.round(number * 100) / 100.0) : "null");
+            } else if (value instanceof Number || value instanceof Boolean) {
+                out.append(value);
+            } else {
+                CatalogTransfer.appendJsonString(out, value.toString());
+            }
+            needComma = true;
+            return this;
+        }
+        
+        private void separate() {
+            if (needComma) {
+                out.append(',');
+            }
+        }
+        
+        @Override
+        public String toString() {
+            return out.toString();
+        }
+    }
+    
+    // Request parsing
+    private static class RequestException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+        
+        final int status;
+        
+        RequestException(int status, String message) {
+            super(message);
+            this.status = status;
+        }
+    }
+    
+    private static void requireMethod(String method, String expected) {
+        if (!method.equals(expected)) {
+            throw new RequestException(405, "Method not allowed");
+        }
+    }
+    
+    /**
+     * Parses the JSON body, refusing one over MAX_BODY_BYTES rather than
+     * buffering whatever the client sends.
+     */
+    private static Map<String, String> readBody(HttpExchange exchange) throws IOException {
+        byte[] bytes;
+        try (InputStream in = exchange.getRequestBody()) {
+            bytes = in.readNBytes(MAX_BODY_BYTES + 1);
+        }
+        if (bytes.length > MAX_BODY_BYTES) {
+            throw new RequestException(413, "Request body must be at most " + MAX_BODY_BYTES + " bytes");
+        }
+        String body = new String(bytes, StandardCharsets.UTF_8).trim();
+        if (body.isEmpty()) {
+            return new HashMap<>();
+        }
+        try {
+            return CatalogTransfer.parseJsonLine(body.replace('\n', ' ').replace('\r', ' '));
+        } catch (RuntimeException e) {
+            throw new RequestException(400, "Malformed JSON body");
+        }
+    }
+    
+    private static Map<String, String> parseQuery(String rawQuery) {
+        Map<String, String> params = new HashMap<>();
+        if (rawQuery == null || rawQuery.isEmpty()) {
+            return params;
+        }
+        for (String pair : rawQuery.split("&")) {
+            int eq = pair.indexOf('=');
+            String name = eq < 0 ? pair : pair.substring(0, eq);
+            String value = eq < 0 ? "" : pair.substring(eq + 1);
+            params.put(URLDecoder.decode(name, StandardCharsets.UTF_8),
+                       URLDecoder.decode(value, StandardCharsets.UTF_8));
+        }
+        return params;
+    }
+    
+    private static String required(Map<String, String> body, String name) {
+        String value = body.get(name);
+        if (value == null || value.isEmpty()) {
+            throw new RequestException(400, "Missing " + name);
+        }
+        return value;
+    }
+    
+    private static int parseInt(String value, String name) {
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            throw new RequestException(400, "Invalid " + name);
+        }
+    }
+    
+    /**
+     * The page size asked for, at least 1; more than MAX_LIMIT is a bad
+     * request rather than an unbounded (or overflowing) amount of work.
+     */
+    private static int limit(Map<String, String> query) {
+        int limit = parseInt(query.getOrDefault("limit", String.valueOf(DEFAULT_LIMIT)), "limit");
+        if (limit > MAX_LIMIT) {
+            throw new RequestException(400, "limit must be at most " + MAX_LIMIT);
+        }
+        return Math.max(1, limit);
+    }
+}
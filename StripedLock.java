@@ -0,0 +1,65 @@
+import java.util.*;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * StripedLock - Fixed pool of locks keyed by hash
+ * Lets operations on disjoint keys proceed in parallel without a global lock.
+ * Multi-key operations take their stripes in ascending index order so two
+ * callers can never deadlock on each other.
+ */
+public class StripedLock {
+    
+    private final ReentrantLock[] stripes;
+    private final int mask;
+    
+    public StripedLock(int minimumStripes) {
+        int size = Integer.highestOneBit(Math.max(1, minimumStripes - 1)) << 1;
+        this.stripes = new ReentrantLock[size];
+        this.mask = size - 1;
+        for (int i = 0; i < size; i++) {
+            stripes[i] = new ReentrantLock();
+        }
+    }
+    
+    public int stripeFor(Object key) {
+        int h = key.hashCode();
+        return (h ^ (h >>> 16)) & mask;
+    }
+    
+    /**
+     * Locks every stripe covering the given keys and returns the stripe
+     * indexes, which must be passed to unlockAll.
+     */
+    public int[] lockAll(Collection<?> keys) {
+        int[] indexes = new int[keys.size()];
+        int count = 0;
+        for (Object key : keys) {
+            indexes[count++] = stripeFor(key);
+        }
+        Arrays.sort(indexes);
+        
+        // Drop duplicate stripes so each lock is taken once
+        int distinct = 0;
+        for (int i = 0; i < count; i++) {
+            if (distinct == 0 || indexes[distinct - 1] != indexes[i]) {
+                indexes[distinct++] = indexes[i];
+            }
+        }
+        int[] held = Arrays.copyOf(indexes, distinct);
+        
+        for (int index : held) {
+            stripes[index].lock();
+        }
+        return held;
+    }
+    
+    public void unlockAll(int[] held) {
+        for (int i = held.length - 1; i >= 0; i--) {
+            stripes[held[i]].unlock();
+        }
+    }
+    
+    public int getStripeCount() {
+        return stripes.length;
+    }
+}
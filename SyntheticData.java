@@ -0,0 +1,171 @@
+import java.util.*;
+
+/**
+ * SyntheticData - Reproducible generated store contents for benchmarks
+ * Fills an ECommerceSystem with a catalog, customers, order history and
+ * reviews of a chosen size. The same sizes and seed always produce the
+ * same data. Product popularity is skewed so a few products dominate
+ * orders, as in a real store, which keeps the best-seller and
+ * recommendation paths realistic.
+ */
+public class SyntheticData {
+    
+    private static final String[] ADJECTIVES = {
+        "Wireless", "Compact", "Premium", "Ergonomic", "Portable", "Smart", "Classic",
+        "Deluxe", "Rugged", "Slim", "Vintage", "Modular", "Silent", "Heavy", "Organic"
+    };
+    private static final String[] NOUNS = {
+        "Laptop", "Headphones", "Chair", "Desk", "Lamp", "Keyboard", "Monitor", "Novel",
+        "Cookbook", "Backpack", "Watch", "Camera", "Speaker", "Blender", "Kettle", "Jacket"
+    };
+    private static final String[] CATEGORIES = {
+        "Electronics", "Books", "Furniture", "Kitchen", "Clothing", "Sports", "Toys", "Garden"
+    };
+    private static final String[] PAYMENT_METHODS = { "Credit Card", "Debit Card", "PayPal" };
+    private static final int ORDER_BATCH = 1000;
+    
+    private final int productCount;
+    private final int customerCount;
+    private final int orderCount;
+    private final int reviewsPerProduct;
+    private final long seed;
+    
+    public SyntheticData(int productCount, int customerCount, int orderCount,
+                         int reviewsPerProduct, long seed) {
+        this.productCount = productCount;
+        this.customerCount = customerCount;
+        this.orderCount = orderCount;
+        this.reviewsPerProduct = reviewsPerProduct;
+        this.seed = seed;
+    }
+    
+    /**
+     * Adds the generated products, customers, reviews and orders to the
+     * system. About 60% of orders end up delivered and 10% cancelled; the
+     * rest stay pending. Stock is large enough that generated orders never
+     * run out.
+     */
+    public ECommerceSystem populate(ECommerceSystem system) {
+        Random random = new Random(seed);
+        system.addProducts(newProducts(random));
+        system.addCustomers(newCustomers());
+        
+        Map<String, List<Review>> reviews = new HashMap<>();
+        for (int i = 0; i < productCount && customerCount > 0; i++) {
+            List<Review> forProduct = new ArrayList<>(reviewsPerProduct);
+            for (int r = 0; r < reviewsPerProduct; r++) {
+                int customer = random.nextInt(customerCount);
+                int rating = 1 + Math.min(4, (int) (random.nextGaussian() + 3.5));
+                forProduct.add(new Review(customerId(customer), "Customer " + customer,
+                                          Math.max(1, rating), "Generated review", false));
+            }
+            reviews.put(productId(i), forProduct);
+        }
+        system.addReviews(reviews);
+        
+        if (customerCount > 0 && productCount > 0) {
+            placeOrders(system, random);
+        }
+        return system;
+    }
+    
+    /**
+     * The same products and customers populate() adds, as fresh objects,
+     * for loading into another store such as a ShardedStore.
+     */
+    public List<Product> newProducts() {
+        return newProducts(new Random(seed));
+    }
+    
+    private List<Product> newProducts(Random random) {
+        List<Product> products = new ArrayList<>(productCount);
+        for (int i = 0; i < productCount; i++) {
+            String name = ADJECTIVES[random.nextInt(ADJECTIVES.length)] + " " +
+                          NOUNS[random.nextInt(NOUNS.length)] + " " + i;
+            String category = CATEGORIES[i % CATEGORIES.length];
+            double price = Math.round((5 + random.nextDouble() * 995) * 100) / 100.0;
+            products.add(new Product(productId(i), name, category, "Synthetic " + name.toLowerCase(),
+                                     price, 1_000_000, "SELLER" + (i % 50)));
+        }
+        return products;
+    }
+    
+    public List<Customer> newCustomers() {
+        List<Customer> customers = new ArrayList<>(customerCount);
+        for (int i = 0; i < customerCount; i++) {
+            customers.add(new Customer(customerId(i), "Customer " + i, "c" + i + "@example.com",
+                                       "555-" + (1000 + i % 9000), i + " Synthetic St"));
+        }
+        return customers;
+    }
+    
+    private void placeOrders(ECommerceSystem system, Random random) {
+        for (int start = 0; start < orderCount; start += ORDER_BATCH) {
+            int size = Math.min(ORDER_BATCH, orderCount - start);
+            List<ECommerceSystem.OrderRequest> batch = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                Map<String, Integer> items = new HashMap<>();
+                int lines = 1 + random.nextInt(4);
+                for (int line = 0; line < lines; line++) {
+                    items.merge(productId(popularProduct(random)), 1 + random.nextInt(2), Integer::sum);
+                }
+                batch.add(new ECommerceSystem.OrderRequest(
+                    customerId(random.nextInt(customerCount)), items,
+                    PAYMENT_METHODS[random.nextInt(PAYMENT_METHODS.length)]));
+            }
+            
+            for (ECommerceSystem.OrderResult result : system.placeOrders(batch)) {
+                if (!result.isSuccess()) {
+                    continue;
+                }
+                String orderId = result.getOrder().getOrderId();
+                double outcome = random.nextDouble();
+                if (outcome < 0.6) {
+                    system.updateOrderStatus(orderId, Order.OrderStatus.CONFIRMED);
+                    system.updateOrderStatus(orderId, Order.OrderStatus.PROCESSING);
+                    system.updateOrderStatus(orderId, Order.OrderStatus.SHIPPED);
+                    system.updateOrderStatus(orderId, Order.OrderStatus.DELIVERED);
+                } else if (outcome < 0.7) {
+                    system.cancelOrder(orderId);
+                }
+            }
+        }
+    }
+    
+    // Sampling
+    /**
+     * Picks a product index with a quadratic skew toward low indexes.
+     */
+    public int popularProduct(Random random) {
+        double u = random.nextDouble();
+        return (int) (u * u * productCount);
+    }
+    
+    /**
+     * A one- or two-word query drawn from the generated vocabulary.
+     */
+    public String searchQuery(Random random) {
+        String noun = NOUNS[random.nextInt(NOUNS.length)];
+        return random.nextBoolean() ? noun : ADJECTIVES[random.nextInt(ADJECTIVES.length)] + " " + noun;
+    }
+    
+    public String productId(int index) {
+        return String.format("P%07d", index);
+    }
+    
+    public String customerId(int index) {
+        return String.format("C%06d", index);
+    }
+    
+    public int getProductCount() { return productCount; }
+    public int getCustomerCount() { return customerCount; }
+    public int getOrderCount() { return orderCount; }
+    public int getReviewsPerProduct() { return reviewsPerProduct; }
+    public long getSeed() { return seed; }
+    
+    @Override
+    public String toString() {
+        return String.format("%d products, %d customers, %d orders, %d reviews/product, seed %d",
+                             productCount, customerCount, orderCount, reviewsPerProduct, seed);
+    }
+}
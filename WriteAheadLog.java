@@ -0,0 +1,228 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.function.BiConsumer;
+import java.util.zip.CRC32;
+
+/**
+ * WriteAheadLog - Append-only, group-committed mutation log
+ * Appenders copy their record into a shared buffer and get back a sequence
+ * number; a single flusher thread writes whatever has accumulated and
+ * fsyncs once for the whole batch. Callers that need durability wait for
+ * their sequence number to be flushed.
+ *
+ * Frame layout: [int payload length][long sequence][payload][int crc32]
+ */
+public class WriteAheadLog implements Closeable {
+    
+    private static final int FRAME_OVERHEAD = 4 + 8 + 4;
+    private static final int MAX_PAYLOAD = 16 * 1024 * 1024;
+    
+    private final Path path;
+    private final Object lock = new Object();
+    private FileChannel channel;
+    private ByteArrayOutputStream pending;
+    private long appendedSequence;
+    private long durableSequence;
+    private IOException failure;
+    private boolean closed;
+    private Thread flusher;
+    
+    public WriteAheadLog(Path path, long lastSequence) throws IOException {
+        this.path = path;
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                                        StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        this.pending = new ByteArrayOutputStream(64 * 1024);
+        this.appendedSequence = lastSequence;
+        this.durableSequence = lastSequence;
+        this.flusher = new Thread(this::flushLoop, "wal-flusher");
+        this.flusher.setDaemon(true);
+        this.flusher.start();
+    }
+    
+    /**
+     * Buffers a record for the next group commit and returns its sequence
+     * number. Does not wait for the disk.
+     */
+    public long append(byte[] payload) {
+        synchronized (lock) {
+            if (closed) {
+                throw new IllegalStateException("Write-ahead log is closed");
+            }
+            
+            long sequence = ++appendedSequence;
+            ByteBuffer frame = ByteBuffer.allocate(payload.length + FRAME_OVERHEAD);
+            frame.putInt(payload.length).putLong(sequence).put(payload);
+            frame.putInt(checksum(sequence, payload));
+            pending.write(frame.array(), 0, frame.capacity());
+            
+            lock.notifyAll();
+            return sequence;
+        }
+    }
+    
+    /**
+     * Blocks until every record appended so far is on disk.
+     */
+    public void awaitDurable() throws IOException {
+        synchronized (lock) {
+            awaitDurable(appendedSequence);
+        }
+    }
+    
+    public void awaitDurable(long sequence) throws IOException {
+        synchronized (lock) {
+            while (durableSequence < sequence && failure == null) {
+                try {
+                    lock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted waiting for log flush");
+                }
+            }
+            if (failure != null) {
+                throw failure;
+            }
+        }
+    }
+    
+    private void flushLoop() {
+        while (true) {
+            byte[] batch;
+            long batchEnd;
+            
+            synchronized (lock) {
+                while (pending.size() == 0 && !closed) {
+                    try {
+                        lock.wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (pending.size() == 0) {
+                    return; // closed and drained
+                }
+                batch = pending.toByteArray();
+                batchEnd = appendedSequence;
+                pending.reset();
+            }
+            
+            try {
+                ByteBuffer buffer = ByteBuffer.wrap(batch);
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                channel.force(false);
+            } catch (IOException e) {
+                synchronized (lock) {
+                    failure = e;
+                    lock.notifyAll();
+                }
+                return;
+            }
+            
+            synchronized (lock) {
+                durableSequence = batchEnd;
+                lock.notifyAll();
+            }
+        }
+    }
+    
+    /**
+     * Discards the log contents. Only safe once a snapshot covering every
+     * appended record is durable.
+     */
+    public void truncate() throws IOException {
+        awaitDurable();
+        synchronized (lock) {
+            channel.truncate(0);
+            channel.force(true);
+        }
+    }
+    
+    public long getAppendedSequence() {
+        synchronized (lock) {
+            return appendedSequence;
+        }
+    }
+    
+    @Override
+    public void close() throws IOException {
+        synchronized (lock) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            lock.notifyAll();
+        }
+        try {
+            flusher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        channel.close();
+    }
+    
+    /**
+     * Streams every intact record in the log to the consumer and returns the
+     * last sequence number seen. Stops at the first torn or corrupt frame,
+     * which can only be the tail of a write interrupted by a crash, and cuts
+     * the file back to the last intact frame so new appends follow it.
+     */
+    public static long replay(Path path, BiConsumer<Long, byte[]> consumer) throws IOException {
+        long lastSequence = 0;
+        long validBytes = 0;
+        if (!Files.exists(path)) {
+            return lastSequence;
+        }
+        
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(Files.newInputStream(path), 256 * 1024))) {
+            while (true) {
+                int length;
+                long sequence;
+                byte[] payload;
+                int crc;
+                try {
+                    length = in.readInt();
+                    if (length < 0 || length > MAX_PAYLOAD) {
+                        break;
+                    }
+                    sequence = in.readLong();
+                    payload = new byte[length];
+                    in.readFully(payload);
+                    crc = in.readInt();
+                } catch (EOFException e) {
+                    break;
+                }
+                
+                if (crc != checksum(sequence, payload)) {
+                    break;
+                }
+                consumer.accept(sequence, payload);
+                lastSequence = sequence;
+                validBytes += length + FRAME_OVERHEAD;
+            }
+        }
+        
+        if (validBytes < Files.size(path)) {
+            try (FileChannel file = FileChannel.open(path, StandardOpenOption.WRITE)) {
+                file.truncate(validBytes);
+                file.force(true);
+            }
+        }
+        return lastSequence;
+    }
+    
+    private static int checksum(long sequence, byte[] payload) {
+        CRC32 crc = new CRC32();
+        crc.update(ByteBuffer.allocate(8).putLong(0, sequence));
+        crc.update(payload);
+        return (int) crc.getValue();
+    }
+    
+    public Path getPath() {
+        return path;
+    }
+}